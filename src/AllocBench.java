@@ -0,0 +1,172 @@
+/**
+ * AllocBench.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * AllocBench: allocation regression check of the steady fetch and upload loops.
+ * Each chunk goes the way it goes over the wire, against a server in this process:
+ * read on the server, encoded by Chunk.writeTo, decoded by Chunk.readFrom and
+ * written to a cache file for a fetch; filled, encoded, decoded and staged in an
+ * upload session for an upload; ranges read from a cache file into one batch chunk,
+ * encoded, decoded and staged for a range upload. After a warm-up, the loops must take every chunk
+ * buffer from the pool (no new BufferPool allocation) and allocate less than
+ * MAXBYTESPERCHUNK bytes per chunk, measured on the thread running them.
+ *
+ * java AllocBench [chunks] [chunkSize]
+ */
+public class AllocBench {
+
+    private static final long FILESIZE = 8 * 1024 * 1024;
+
+    /* bookkeeping allowed per chunk (paths, wrappers, positions), not its content */
+    private static final long MAXBYTESPERCHUNK = 2048;
+
+    /* ranges packed in each chunk of a range upload */
+    private static final int RANGES = 4;
+
+    /**
+     * Wire: a reusable stand-in for the transport stream
+     */
+    private static class Wire extends ByteArrayOutputStream {
+        DataInputStream input() {
+            return new DataInputStream(new ByteArrayInputStream(buf, 0, count));
+        }
+    }
+
+    private interface Loop {
+        void chunk(int i) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int chunks = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final int chunkSize = args.length > 1 ? Integer.parseInt(args[1]) : Proxy.MAXCHUNKSIZE;
+
+        File dir = File.createTempFile("alloc-bench", "");
+        dir.delete();
+        File serverDir = new File(dir, "server");
+        serverDir.mkdirs();
+        final byte[] content = new byte[chunkSize];
+        new Random(1).nextBytes(content);
+        try (FileOutputStream out = new FileOutputStream(new File(serverDir, "data"))) {
+            for (long n = 0; n < FILESIZE; n += chunkSize) out.write(content);
+        }
+        final Server server = new Server(serverDir.getAbsolutePath());
+        final Wire wire = new Wire();
+        final DataOutputStream wireOut = new DataOutputStream(wire);
+        final FileChannel cacheFile = new RandomAccessFile(new File(dir, "cached"), "rw").getChannel();
+        final int perFile = (int) (FILESIZE / chunkSize);
+
+        Loop fetch = new Loop() {
+            public void chunk(int i) throws Exception {
+                int offset = (i % perFile) * chunkSize;
+                Chunk sent = server.readOnServer("data", offset, chunkSize, FileHandling.OpenOption.READ, Long.MAX_VALUE);
+                wire.reset();
+                sent.writeTo(wireOut);
+                Chunk got = new Chunk(0);
+                got.readFrom(wire.input());
+                cacheFile.write(ByteBuffer.wrap(got.content, 0, got.size), offset);
+                got.release();
+            }
+        };
+        final long[] session = new long[1];
+        Loop upload = new Loop() {
+            public void chunk(int i) throws Exception {
+                if (i % perFile == 0) {
+                    if (session[0] > 0) server.commitUpload(session[0], FILESIZE);
+                    session[0] = server.beginUpload("upload", -1);
+                }
+                Chunk sent = new Chunk(chunkSize);
+                System.arraycopy(content, 0, sent.content, 0, chunkSize);
+                sent.recycle = true;
+                wire.reset();
+                sent.writeTo(wireOut);
+                Chunk got = new Chunk(0);
+                got.readFrom(wire.input());
+                server.stageUpload(session[0], got, (long) (i % perFile) * chunkSize);
+            }
+        };
+
+        final RandomAccessFile source = new RandomAccessFile(new File(serverDir, "data"), "r");
+        final long[] offsets = new long[RANGES];
+        final int[] lengths = new int[RANGES];
+        Loop ranges = new Loop() {
+            public void chunk(int i) throws Exception {
+                if (i % perFile == 0) {
+                    if (session[0] > 0) server.commitUpload(session[0], FILESIZE);
+                    session[0] = server.beginUpload("ranges", -1);
+                }
+                Chunk sent = new Chunk(chunkSize);
+                sent.size = 0;
+                long base = (long) (i % perFile) * chunkSize;
+                for (int r = 0; r < RANGES; r++) {
+                    offsets[r] = base + r * (chunkSize / RANGES);
+                    lengths[r] = chunkSize / RANGES / 2;
+                    source.seek(offsets[r]);
+                    source.readFully(sent.content, sent.size, lengths[r]);
+                    sent.size += lengths[r];
+                }
+                sent.recycle = true;
+                wire.reset();
+                sent.writeTo(wireOut);
+                Chunk got = new Chunk(0);
+                got.readFrom(wire.input());
+                server.stageRanges(session[0], offsets, lengths, got);
+            }
+        };
+
+        // the server is exported and keeps the JVM up: exit with the result
+        boolean ok = false;
+        try {
+            ok = run("fetch", fetch, chunks, chunkSize);
+            ok &= run("upload", upload, chunks, chunkSize);
+            server.commitUpload(session[0], FILESIZE);
+            session[0] = 0;
+            ok &= run("ranges", ranges, chunks, chunkSize);
+            System.out.println(BufferPool.stats());
+        } finally {
+            if (!ok) System.err.println("allocation regression");
+            System.exit(ok ? 0 : 1);
+        }
+    }
+
+    /**
+     * run: warm a loop up, then measure its allocations
+     * @return true, if within the limits
+     */
+    private static boolean run(String name, Loop loop, int chunks, int chunkSize) throws Exception {
+        for (int i = 0; i < chunks; i++) {
+            loop.chunk(i);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long pooled = BufferPool.allocCnt.get();
+        long reused = BufferPool.reuseCnt.get();
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < chunks; i++) {
+            loop.chunk(i);
+        }
+        double us = (System.nanoTime() - start) / 1e3 / chunks;
+        long perChunk = (threads.getThreadAllocatedBytes(thread) - bytes) / chunks;
+        long newBuffers = BufferPool.allocCnt.get() - pooled;
+        boolean ok = perChunk < MAXBYTESPERCHUNK && newBuffers == 0;
+        System.out.printf("loop=%s chunks=%d chunkSize=%d chunkUs=%.1f bytesPerChunk=%d newBuffers=%d reused=%d %s%n",
+                name, chunks, chunkSize, us, perChunk, newBuffers, BufferPool.reuseCnt.get() - reused,
+                ok ? "ok" : "FAIL");
+        return ok;
+    }
+}
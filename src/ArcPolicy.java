@@ -0,0 +1,129 @@
+/**
+ * ArcPolicy.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.util.*;
+
+/**
+ * ArcPolicy: adaptive replacement cache measured in bytes.
+ * T1 holds files referenced once, T2 files referenced again. B1 and B2 remember
+ * the paths recently evicted from T1 and T2, and a hit in either ghost moves the
+ * target size p of T1 towards the side that would have kept the file.
+ */
+public class ArcPolicy implements Cache.EvictionPolicy {
+
+    private long capacity;   // cache size limit
+    private long target;     // adaptive target bytes of T1 (p)
+
+    private LruList t1 = new LruList();
+    private LruList t2 = new LruList();
+
+    /* ghost lists: path as key, file size when evicted as value, eldest first */
+    private LinkedHashMap<String, Long> b1 = new LinkedHashMap<>();
+    private LinkedHashMap<String, Long> b2 = new LinkedHashMap<>();
+    private long b1Bytes;
+    private long b2Bytes;
+
+    /* paths still cached but temporarily unlinked from T1/T2 (e.g. being re-read) */
+    private HashSet<String> residentSet = new HashSet<>();
+
+    /**
+     * ArcPolicy constructor
+     * @param capacity       cache size limit
+     */
+    public ArcPolicy(long capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public String name() {
+        return "arc";
+    }
+
+    @Override
+    public void add(CacheFile caFile) {
+        String path = caFile.path;
+        if (t1.contains(caFile) || t2.contains(caFile) || residentSet.contains(path)) {
+            remove(caFile);
+            t2.addFirst(caFile);
+        } else if (b1.containsKey(path)) {
+            long delta = Math.max(1, b1Bytes == 0 ? 1 : b2Bytes / b1Bytes) * Math.max(1, caFile.fileSize);
+            target = Math.min(capacity, target + delta);
+            b1Bytes -= b1.remove(path);
+            t2.addFirst(caFile);
+        } else if (b2.containsKey(path)) {
+            long delta = Math.max(1, b2Bytes == 0 ? 1 : b1Bytes / b2Bytes) * Math.max(1, caFile.fileSize);
+            target = Math.max(0, target - delta);
+            b2Bytes -= b2.remove(path);
+            t2.addFirst(caFile);
+        } else {
+            t1.addFirst(caFile);
+        }
+        residentSet.add(path);
+    }
+
+    @Override
+    public boolean remove(CacheFile caFile) {
+        return t1.remove(caFile) || t2.remove(caFile);
+    }
+
+    @Override
+    public CacheFile victim() {
+        CacheFile last;
+        if (t1.size() > 0 && (t1.bytes() > target || t2.size() == 0)) {
+            last = t1.removeLast();
+            b1.put(last.path, last.lruSize);
+            b1Bytes += last.lruSize;
+        } else {
+            last = t2.removeLast();
+            if (last == null) return null;
+            b2.put(last.path, last.lruSize);
+            b2Bytes += last.lruSize;
+        }
+        residentSet.remove(last.path);
+        trimGhosts();
+        return last;
+    }
+
+    /**
+     * trimGhosts: keep each ghost list within the cache size limit
+     */
+    private void trimGhosts() {
+        Iterator<Map.Entry<String, Long>> it = b1.entrySet().iterator();
+        while (b1Bytes > capacity && it.hasNext()) {
+            b1Bytes -= it.next().getValue();
+            it.remove();
+        }
+        it = b2.entrySet().iterator();
+        while (b2Bytes > capacity && it.hasNext()) {
+            b2Bytes -= it.next().getValue();
+            it.remove();
+        }
+    }
+
+    @Override
+    public void forget(String path) {
+        residentSet.remove(path);
+        Long size = b1.remove(path);
+        if (size != null) b1Bytes -= size;
+        size = b2.remove(path);
+        if (size != null) b2Bytes -= size;
+    }
+
+    @Override
+    public int tracked() {
+        return residentSet.size() + b1.size() + b2.size();
+    }
+
+    @Override
+    public int size() {
+        return t1.size() + t2.size();
+    }
+
+    @Override
+    public long bytes() {
+        return t1.bytes() + t2.bytes();
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * BlockFile.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.IOException;
+
+/**
+ * BlockFile: a read-only OpenFile served by the block store.
+ * Only the blocks a read touches are fetched, so a small read of a file larger
+ * than the cache costs one block.
+ */
+public class BlockFile implements OpenFile {
+
+    private BlockStore store;
+    private ServerInf server;
+    private String path;
+    private long version;
+    private long length;
+    private long pos;
+
+    /**
+     * BlockFile constructor
+     * @param store          block store
+     * @param server         server to fetch missing blocks from
+     * @param path           original path
+     * @param version        version opened
+     * @param length         file length of the version
+     */
+    public BlockFile(BlockStore store, ServerInf server, String path, long version, long length) {
+        this.store = store;
+        this.server = server;
+        this.path = path;
+        this.version = version;
+        this.length = length;
+    }
+
+    @Override
+    public int read(byte[] buf) throws IOException {
+        if (pos >= length) return -1;
+        int n = (int) Math.min(buf.length, length - pos);
+        int blockSize = store.blockSize;
+        int done = 0;
+        while (done < n) {
+            long index = pos / blockSize;
+            int off = (int) (pos % blockSize);
+            int blockLen = (int) Math.min(blockSize, length - index * blockSize);
+            int len = Math.min(n - done, blockLen - off);
+            store.read(server, path, version, index, blockLen, off, buf, done, len);
+            done += len;
+            pos += len;
+        }
+        return n;
+    }
+
+    @Override
+    public void write(byte[] buf) throws IOException {
+        throw new IOException("read-only file");
+    }
+
+    @Override
+    public long growth(long len) {
+        return 0;
+    }
+
+    @Override
+    public long getFilePointer() {
+        return pos;
+    }
+
+    @Override
+    public void seek(long pos) {
+        this.pos = pos;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * BlockStore.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.*;
+import java.rmi.RemoteException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BlockStore: fixed-size blocks of large read-only files, fetched on demand.
+ * The store is content-addressed: a block key (path, version, block index) maps to
+ * the hash of its content, and each distinct content is stored once, as a CacheFile
+ * under its hash in the shard the hash hashes to. It is reserved, ranked and evicted
+ * like a whole file, so the cache size counts unique bytes, and a block shared by
+ * several versions stays as hot as its most used key. A block that cannot be
+ * reserved is still returned to the reader, just not kept.
+ */
+public class BlockStore {
+
+    public final int blockSize;
+
+    private Cache cache;
+    private File dir;
+
+    /* map contains block key as key, content hash as value; bounded, keys of
+       evicted contents are dropped when looked up */
+    private LinkedHashMap<String, String> keyHashMap = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAXKEYS;
+        }
+    };
+    private static final int MAXKEYS = 1 << 16;
+
+    /* block hits, fetched blocks, fetched blocks whose content was already stored,
+       and fetched blocks that could not be cached */
+    public AtomicLong hitCnt = new AtomicLong();
+    public AtomicLong fetchCnt = new AtomicLong();
+    public AtomicLong dedupCnt = new AtomicLong();
+    public AtomicLong uncachedCnt = new AtomicLong();
+
+    /**
+     * BlockStore constructor, blocks of a previous run are dropped
+     * @param cache          the cache accounting the blocks
+     * @param blockSize      block size in bytes
+     */
+    public BlockStore(Cache cache, int blockSize) {
+        this.cache = cache;
+        this.blockSize = blockSize;
+        dir = new File(Cache.cachePath, ".blocks");
+        File[] old = dir.listFiles();
+        if (old != null) {
+            for (File f : old) f.delete();
+        }
+        dir.mkdirs();
+    }
+
+    /**
+     * key: key of a block of a version
+     * @param path           original path
+     * @param version        version of the file
+     * @param index          block index
+     * @return key
+     */
+    private static String key(String path, long version, long index) {
+        return version + ":" + index + ":" + path;
+    }
+
+    /**
+     * contentKey: cache key of a stored content; it starts with '\0' so it never
+     * equals a path
+     * @param hash           content hash
+     * @return key
+     */
+    private static String contentKey(String hash) {
+        return "\0" + hash;
+    }
+
+    /**
+     * hash: SHA-1 of a block content
+     * @param chunk          block content
+     * @return hex string
+     */
+    private static String hash(Chunk chunk) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(chunk.content, 0, chunk.size);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * read: copy part of a block into a buffer, fetching the block on a miss
+     * @param server         server to fetch from
+     * @param path           original path
+     * @param version        version of the file
+     * @param index          block index
+     * @param blockLen       length of the block (the last block may be short)
+     * @param off            offset in the block
+     * @param buf            destination buffer
+     * @param bufOff         offset in the buffer
+     * @param len            bytes to copy
+     * @throws IOException if the block cannot be fetched, e.g. the version has changed
+     */
+    public void read(ServerInf server, String path, long version, long index, int blockLen,
+                     int off, byte[] buf, int bufOff, int len) throws IOException {
+        String key = key(path, version, index);
+        String hash;
+        synchronized (keyHashMap) {
+            hash = keyHashMap.get(key);
+        }
+        if (hash != null && readStored(hash, off, buf, bufOff, len)) {
+            hitCnt.incrementAndGet();
+            return;
+        }
+
+        Chunk chunk;
+        try {
+            chunk = server.readBlockOnServer(path, version, index * blockSize, blockLen);
+        } catch (RemoteException e) {
+            throw new IOException(e);
+        }
+        if (chunk.size != blockLen) {
+            throw new IOException("cannot fetch block " + index + " of " + path + ": " + chunk.size);
+        }
+        fetchCnt.incrementAndGet();
+        System.arraycopy(chunk.content, off, buf, bufOff, len);
+        hash = hash(chunk);
+        if (install(hash, chunk)) {
+            synchronized (keyHashMap) {
+                keyHashMap.put(key, hash);
+            }
+        }
+        chunk.release();
+    }
+
+    /**
+     * readStored: copy part of a stored content into a buffer
+     * @param hash           content hash
+     * @param off            offset in the block
+     * @param buf            destination buffer
+     * @param bufOff         offset in the buffer
+     * @param len            bytes to copy
+     * @return true, if the content is stored; false, if it has been evicted
+     * @throws IOException
+     */
+    private boolean readStored(String hash, int off, byte[] buf, int bufOff, int len) throws IOException {
+        String contentKey = contentKey(hash);
+        CacheShard shard = cache.shardFor(contentKey);
+        shard.lock.lock();
+        try {
+            CacheFile block = shard.pathOrigFileMap.get(contentKey);
+            if (block == null) return false;
+            RandomAccessFile raf = new RandomAccessFile(block.realPath, "r");
+            try {
+                raf.seek(off);
+                raf.readFully(buf, bufOff, len);
+            } finally {
+                raf.close();
+            }
+            shard.policy.add(block);
+            return true;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * install: store a fetched block, unless its content is stored already, if it can
+     * be reserved without stalling the reader
+     * @param hash           content hash
+     * @param chunk          block content
+     * @return true, if the content is stored
+     */
+    private boolean install(String hash, Chunk chunk) {
+        String contentKey = contentKey(hash);
+        CacheShard shard = cache.shardFor(contentKey);
+        shard.lock.lock();
+        try {
+            CacheFile stored = shard.pathOrigFileMap.get(contentKey);
+            if (stored != null) {
+                dedupCnt.incrementAndGet();
+                shard.policy.add(stored);
+                return true;
+            }
+            if (!shard.incrCacheSize(chunk.size)) {
+                uncachedCnt.incrementAndGet();
+                cache.reclaimer.wake();
+                return false;
+            }
+            File file = new File(dir, hash);
+            try {
+                FileOutputStream output = new FileOutputStream(file);
+                try {
+                    output.write(chunk.content, 0, chunk.size);
+                } finally {
+                    output.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                file.delete();
+                shard.release(chunk.size);
+                return false;
+            }
+            CacheFile block = new CacheFile(contentKey, file.getPath(), 0);
+            block.fileSize = chunk.size;
+            shard.pathOrigFileMap.put(contentKey, block);
+            shard.policy.add(block);
+            return true;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * stats: block counters
+     * @return a one-line summary
+     */
+    public String stats() {
+        return String.format("blockSize=%d blockHits=%d blockFetches=%d blocksDeduped=%d blocksUncached=%d",
+                blockSize, hitCnt.get(), fetchCnt.get(), dedupCnt.get(), uncachedCnt.get());
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * BufferPool.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BufferPool: reusable transfer buffers, so steady fetch and upload loops do not
+ * allocate a new array per chunk. Buffers come in power-of-two sizes from 4K to 1M;
+ * a request gets the smallest size that fits, so a buffer may be longer than asked
+ * and only its first bytes are meaningful. Larger requests are not pooled. Each size
+ * keeps at most MAXIDLE idle buffers; extra ones are left to the garbage collector,
+ * as are buffers never given back.
+ */
+public class BufferPool {
+
+    private static final int MINSHIFT = 12;
+    private static final int MAXSHIFT = 20;
+    private static final int MAXIDLE = 32;
+
+    private static final ConcurrentLinkedQueue<byte[]>[] idle = newQueues();
+    private static final AtomicInteger[] idleCnt = new AtomicInteger[MAXSHIFT + 1];
+    static {
+        for (int i = MINSHIFT; i <= MAXSHIFT; i++) {
+            idleCnt[i] = new AtomicInteger();
+        }
+    }
+
+    /* buffers allocated and buffers reused */
+    public static AtomicLong allocCnt = new AtomicLong();
+    public static AtomicLong reuseCnt = new AtomicLong();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ConcurrentLinkedQueue<byte[]>[] newQueues() {
+        ConcurrentLinkedQueue<byte[]>[] queues = new ConcurrentLinkedQueue[MAXSHIFT + 1];
+        for (int i = MINSHIFT; i <= MAXSHIFT; i++) {
+            queues[i] = new ConcurrentLinkedQueue<>();
+        }
+        return queues;
+    }
+
+    /**
+     * shift: size class of a length
+     * @param len        bytes needed
+     * @return log2 of the buffer size, > MAXSHIFT if not pooled
+     */
+    private static int shift(int len) {
+        if (len <= (1 << MINSHIFT)) return MINSHIFT;
+        return 32 - Integer.numberOfLeadingZeros(len - 1);
+    }
+
+    /**
+     * get: take a buffer of at least len bytes
+     * @param len        bytes needed
+     * @return buffer, its content undefined
+     */
+    public static byte[] get(int len) {
+        int shift = shift(len);
+        if (shift > MAXSHIFT) {
+            allocCnt.incrementAndGet();
+            return new byte[len];
+        }
+        byte[] buf = idle[shift].poll();
+        if (buf != null) {
+            idleCnt[shift].decrementAndGet();
+            reuseCnt.incrementAndGet();
+            return buf;
+        }
+        allocCnt.incrementAndGet();
+        return new byte[1 << shift];
+    }
+
+    /**
+     * put: give back a buffer no longer referenced anywhere
+     * @param buf        buffer from get, may be null
+     */
+    public static void put(byte[] buf) {
+        if (buf == null || buf.length < (1 << MINSHIFT) || Integer.bitCount(buf.length) != 1) return;
+        int shift = shift(buf.length);
+        if (shift > MAXSHIFT) return;
+        if (idleCnt[shift].incrementAndGet() > MAXIDLE) {
+            idleCnt[shift].decrementAndGet();
+            return;
+        }
+        idle[shift].offer(buf);
+    }
+
+    /**
+     * stats: buffer counters
+     * @return a one-line summary
+     */
+    public static String stats() {
+        return String.format("buffersAllocated=%d buffersReused=%d", allocCnt.get(), reuseCnt.get());
+    }
+}
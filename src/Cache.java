@@ -7,32 +7,136 @@
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Cache {
 
+    /**
+     * EvictionPolicy: decides which cached original file is evicted next.
+     * A file is added when it becomes cached or is referenced again, and removed when
+     * it leaves the cache for any reason other than eviction.
+     */
+    public interface EvictionPolicy {
+
+        // name: the name used to select the policy
+        public String name();
+
+        // add: link a file as (re-)referenced
+        public void add(CacheFile caFile);
+
+        // remove: unlink a file without evicting it, return false if it was not linked
+        public boolean remove(CacheFile caFile);
+
+        // victim: unlink and return the next file to evict, null if nothing is evictable
+        public CacheFile victim();
+
+        // forget: drop the state kept for a path that left the cache other than by
+        // victim (unlinked or dropped), after its file is unlinked; if the path is
+        // cached again, it is new to the policy
+        public void forget(String path);
+
+        // tracked: number of entries of per-path state kept, ghosts included
+        public int tracked();
+
+        // size: number of evictable files
+        public int size();
+
+        // bytes: total size of evictable files
+        public long bytes();
+    }
+
+    /**
+     * createPolicy: create an eviction policy by name
+     * @param name       lru, lfu, arc, s3fifo or tinylfu
+     * @param capacity   cache size limit
+     * @return EvictionPolicy object
+     */
+    public static EvictionPolicy createPolicy(String name, long capacity) {
+        switch (name.toLowerCase()) {
+            case "lru":
+                return new LruPolicy();
+            case "lfu":
+                return new LfuPolicy();
+            case "arc":
+                return new ArcPolicy(capacity);
+            case "s3fifo":
+                return new S3FifoPolicy(capacity);
+            case "tinylfu":
+            case "w-tinylfu":
+                return new TinyLfuPolicy(capacity);
+            default:
+                throw new IllegalArgumentException("unknown eviction policy: " + name);
+        }
+    }
+
     public static String cachePath;
     public static long cacheSize;
 
     /* chunk size used in copy files */
     public static final int CHUNKSIZE = 8 * 1024;
-    
-    /* current allocated memory size in the cache */
-    public long curSize;
-    
-    /* map contains path as key, a linkedlist of all the read copies of the poth as a value */
-    public ConcurrentHashMap<String, LinkedList<CacheFile>> pathCopyMap;
-    
-    /* map contains path as key, the file version time of the path as a value */
-    public ConcurrentHashMap<String, Long> pathTimeMap;
-    
+
+    /* hash partitions of the cache, each with its own lock, lru and size slice */
+    public CacheShard[] shards;
+
+    /* name of the eviction policy used by every shard */
+    public String policyName;
+
+    /* reserved bytes over the whole cache, never above cacheSize (the hard limit) */
+    public AtomicLong used = new AtomicLong();
+
+    /* the reclaimer evicts down to lowWater once used crosses highWater */
+    public long highWater;
+    public long lowWater;
+    public Reclaimer reclaimer;
+
+    /* number of reservations that hit the hard limit, and the time they waited */
+    public AtomicLong stallCnt = new AtomicLong();
+    public AtomicLong stallNanos = new AtomicLong();
+
+    /* optional in-memory tier for small files, null if disabled */
+    public MemoryTier memTier;
+
+    /* block store for large read-only files, null if disabled */
+    public BlockStore blocks;
+
+    /* coalescer of version checks, null if disabled */
+    public Validator validator;
+
+    /* read leases held from the server, null if disabled */
+    public LeaseTable leases;
+
+    /* metadata journal for warm restarts, null if disabled */
+    public CacheJournal journal;
+    public int restoredCnt;
+
     /* map contains file descriptor as a key, a corresponding CacheFile object as a value */
     public ConcurrentHashMap<Integer, CacheFile> fdCopyMap;
-    
-    /* map contains path as a key, the corresponding non-copy CacheFile object as a value */
-    public ConcurrentHashMap<String, CacheFile> pathOrigFileMap;
-    
-    /* a linked list representation of lru */
-    public LinkedList<CacheFile> lruList;  // ranked from the lastest used to the least used
+
+    /* hit/miss counters of open, in files and in bytes */
+    public AtomicLong hitCnt = new AtomicLong();
+    public AtomicLong missCnt = new AtomicLong();
+    public AtomicLong byteHitCnt = new AtomicLong();
+    public AtomicLong byteMissCnt = new AtomicLong();
+    public AtomicLong evictCnt = new AtomicLong();
+
+    /* read copies hard-linked to the cached file instead of copied */
+    public AtomicLong linkCnt = new AtomicLong();
+
+    /* bytes sent to server, delta and whole-file uploads, and the time writers spent in close */
+    public AtomicLong sentBytes = new AtomicLong();
+    public AtomicLong deltaCnt = new AtomicLong();
+    public AtomicLong fullUploadCnt = new AtomicLong();
+    public AtomicLong rangeUploadCnt = new AtomicLong();
+    public AtomicLong cleanCloseCnt = new AtomicLong();   // writers closed with nothing written
+
+    /* stale versions brought up to date by fetching only changed blocks, and the bytes fetched */
+    public AtomicLong deltaDownloadCnt = new AtomicLong();
+    public AtomicLong deltaFetchBytes = new AtomicLong();
+
+    /* opens that waited on another open's download of the same version instead of fetching */
+    public AtomicLong sharedFetchCnt = new AtomicLong();
+    public AtomicLong closeNanos = new AtomicLong();
+    public AtomicLong closeCnt = new AtomicLong();
 
     /**
      * Cache Constructor
@@ -40,14 +144,33 @@ public class Cache {
      * @param size       the limit of cache size
      */
     public Cache(String path, long size) {
+        this(path, size, "lru", 1, 90, 75);
+    }
+
+    /**
+     * Cache Constructor
+     * @param path       the path of local cache
+     * @param size       the limit of cache size
+     * @param policyName the name of eviction policy
+     * @param shardCnt   the number of shards
+     * @param highPct    high watermark in percent of the size limit
+     * @param lowPct     low watermark in percent of the size limit
+     */
+    public Cache(String path, long size, String policyName, int shardCnt, int highPct, int lowPct) {
         cachePath = path;
         cacheSize = size;
-        curSize = 0;
-        pathCopyMap = new ConcurrentHashMap<>();
-        pathTimeMap = new ConcurrentHashMap<>();
+        this.policyName = policyName;
         fdCopyMap = new ConcurrentHashMap<>();
-        pathOrigFileMap = new ConcurrentHashMap<>();
-        lruList = new LinkedList<>();
+        shards = new CacheShard[shardCnt];
+        for (int i = 0; i < shardCnt; i++) {
+            // the remainder of the division goes to shard 0
+            long slice = size / shardCnt + (i == 0 ? size % shardCnt : 0);
+            shards[i] = new CacheShard(this, i, slice, policyName);
+        }
+        highWater = size * highPct / 100;
+        lowWater = size * lowPct / 100;
+        reclaimer = new Reclaimer(this);
+        reclaimer.start();
     }
 
     /**
@@ -55,7 +178,7 @@ public class Cache {
      * @param path         original file
      * @return absolute path
      */
-    private String createCachePath(String path) {
+    public String createCachePath(String path) {
         StringBuilder sb = new StringBuilder(cachePath);
         sb.append("/");
         sb.append(path);
@@ -79,230 +202,120 @@ public class Cache {
     }
 
     /**
-     * createNewCopy: create a copy of the file in the cache
-     * @param cachePath       the absolute path of a file in the cache
-     * @param fd              file descriptor
-     * @return the absolute path of new copy file
-     */
-    private synchronized String createNewCopy(String cachePath, int fd) {
-        String newPath = cachePath + fd;
-        FileOutputStream output = null;
-        FileInputStream input = null;
-        try {
-            output = new FileOutputStream(newPath);
-            input = new FileInputStream(cachePath);
-            byte[] buf = new byte[CHUNKSIZE];
-            int readLen = 0;
-            while ((readLen = input.read(buf)) > 0) {
-                output.write(buf, 0, readLen);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                output.close();
-                input.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-        return newPath;
-    }
-
-    /**
-     * copyFileToNewPath: create a new copied CacheFile object with a new path.
-     * @param caFile       original CacheFile object
-     * @param newPath      new absolute path stored in cache
-     * @return a copy of the original CacheFile object but with the new path
-     */
-    private synchronized CacheFile copyFileToNewPath(CacheFile caFile, String newPath) {
-        CacheFile newFile = new CacheFile(caFile.path, newPath, caFile.modifiedTime);
-        newFile.isDir = caFile.isDir;
-        newFile.readCnt = 1;
-        newFile.readOnly = caFile.readOnly;
-        newFile.fileSize = caFile.fileSize;
-        return newFile;
-    }
-
-    /**
-     * pathExist: whether cache has file with such path
-     * @param path
-     * @return true, if exist; false, if not.
-     */
-    public boolean pathExist(String path) {
-        return pathTimeMap.containsKey(path);
-    }
-
-    /**
-     * lastModifiedTime: get the last modified time of file with the path in the cache
+     * shardFor: get the shard owning a path
      * @param path       original path of a file
-     * @return the last modified time
+     * @return CacheShard object
      */
-    public long lastModifiedTime(String path) {
-        if (!pathExist(path)) return -1;
-        return pathTimeMap.get(path);
+    public CacheShard shardFor(String path) {
+        int h = path.hashCode();
+        h ^= h >>> 16;
+        return shards[(h & 0x7fffffff) % shards.length];
     }
 
     /**
-     * updateTime: update the latest timestamp of the file with the path 
-     * @param path       original path of a file
-     * @param time       the latest time
+     * curSize: current allocated size over all the shards
+     * @return bytes
      */
-    public void updateTime(String path, long time) {
-        pathTimeMap.put(path, time);
-        if (!pathCopyMap.containsKey(path)) {
-            pathCopyMap.put(path, new LinkedList<>());
+    public long curSize() {
+        long size = 0;
+        for (CacheShard shard : shards) {
+            size += shard.curSize();
         }
+        return size;
     }
 
     /**
-     * getLastCopy: get the latest read copy of the path
-     * @param path       original path of a file
-     * @return CacheFile object
-     */
-    public CacheFile getLastCopy(String path) {
-        if (!pathCopyMap.containsKey(path)) return null;
-        if (pathCopyMap.get(path).size() == 0) return null;
-        return pathCopyMap.get(path).getLast();
-    }
-
-    /**
-     * lastCopyIsLatest: whether the last read copy is up-to-date
-     * @param path       original path of a file
-     * @param time       the current up-to-date time
-     * @return true, if latest; false, if not
-     */
-    public boolean lastCopyIsLatest(String path, long time) {
-        if (!pathExist(path)) return false;
-        CacheFile last = getLastCopy(path);
-        if (last == null) return false;
-        if (last.modifiedTime != time) return false;
-        if (last.readCnt == 0) return false;
-        return true;
-    }
-
-    /**
-     * incrCacheSize: add to the current allocated size in cache
-     * @param size
+     * tryReserve: reserve space without blocking.
+     * Wakes the reclaimer if the usage crosses the high watermark.
+     * @param size       bytes to reserve
      * @return true, if value after add will not be larger than cache size limit
      */
-    public synchronized boolean incrCacheSize(long size) {
-        synchronized (this) {
-            if (curSize + size > cacheSize) {
-                return false;
+    public boolean tryReserve(long size) {
+        while (true) {
+            long cur = used.get();
+            if (cur + size > cacheSize) return false;
+            if (used.compareAndSet(cur, cur + size)) {
+                if (cur + size > highWater) {
+                    reclaimer.wake();
+                }
+                return true;
             }
-            curSize += size;
-            return true;
         }
     }
 
     /**
-     * evict: evict from the tail of the lru linkedlist to free up demanded size
-     * @param size        the size to be freed up
-     * @return true, if eviction succeed; false, if failed.
+     * release: give reserved space back
+     * @param size       bytes to release
      */
-    public synchronized boolean evict(long size) {
-        long evictSize = 0;
-        synchronized (this) {
-            evictSize = 0;
-            for (int i = lruList.size() - 1; i >= 0; i--) {
-                CacheFile node = lruList.get(i);
-                evictSize += node.fileSize;
-                if (curSize - evictSize + size <= cacheSize) break;
-            }
-            if (curSize - evictSize + size > cacheSize) {
-                return false;
-            }
-            evictSize = 0;
-            while (lruList.size() != 0) {
-                CacheFile last = lruList.removeLast();
-                File file = new File(last.realPath);
-                file.delete();
-                pathOrigFileMap.remove(last.path);
-                pathTimeMap.remove(last.path);
-                evictSize += last.fileSize;
-                if (curSize - evictSize + size <= cacheSize) {
-                    break;
-                }
-            }
-            curSize += size - evictSize;
-        }
-        return true;
+    public void release(long size) {
+        used.addAndGet(-size);
     }
 
     /**
-     * moveFromLru: move a block in lru linkedlist, and decrease current size.
-     * @param caFile      the CacheFile object to be moved
+     * evictableBytes: total size of evictable files over all the shards.
+     * The policies are read without their locks, so it is only an estimate.
+     * @return bytes
      */
-    public synchronized void moveFromLru(CacheFile caFile) {
-        synchronized (this) {
-            int index = lruList.indexOf(caFile);
-            if (index >= 0) {
-                lruList.remove(caFile);
-                curSize -= caFile.fileSize;
-            }
+    public long evictableBytes() {
+        long size = 0;
+        for (CacheShard shard : shards) {
+            size += shard.policy.bytes();
         }
+        return size;
     }
 
     /**
-     * pushNewFile: push a new copy file in the cache
-     * 1. If add the size of the copy to current size will not exceed the size limit,
-     *    just create a new copy of the original CacheFile object with the path and store in cache.
-     * 2. If the above is not, if read only, rename the non-copy file in cache with a copy name, 
-     *    read on that file and move the path from lru list.
-     * 3. If the above is not, if not read only, evict such size and then create new copy, 
-     *    store in cache.
-     * @param caFile           original CacheFile object
-     * @param fd               file descriptor
-     * @param readOnly         if the file is read only
-     * @return the new copy (CacheFile object)
+     * reserveBlocking: reserve space when the hard limit is hit.
+     * The caller stalls until the reclaimer frees enough space. If a reclaim pass
+     * frees nothing (e.g. the only evictable files are in the caller's locked shard),
+     * the caller evicts from its own shard.
+     * @param size       bytes to reserve
+     * @param shard      the shard whose lock the caller holds
+     * @return true, if reserved; false, if the space can never be freed
      */
-    public synchronized CacheFile pushNewFile(CacheFile caFile, int fd, boolean readOnly) {
-        String path = caFile.path;
-        String cachePath = caFile.realPath;
-        String newCachePath = "";
-        synchronized (this) {
-            if (!incrCacheSize(caFile.fileSize)) {
-                if (readOnly) {
-                    CacheFile origFile = pathOrigFileMap.get(caFile.path);
-                    File file = new File(origFile.realPath);
-                    newCachePath = cachePath + fd;
-                    File newFile = new File(newCachePath);
-                    lruList.remove(origFile);
-                    file.renameTo(newFile);
-                    pathOrigFileMap.remove(path);
-                    pathTimeMap.remove(path);
-                    lruList.remove(origFile);
-                } else {
-
-                    if (!evict(caFile.fileSize)) {
-                        CacheFile errorFile = new CacheFile(null, null, 0);
-                        errorFile.error = FileHandling.Errors.ENOMEM;
-                        return errorFile;
-                    }
-                    newCachePath = createNewCopy(cachePath, fd);  
+    public boolean reserveBlocking(long size, CacheShard shard) {
+        // everything evictable can be freed, so check the total before deleting anything
+        if (used.get() - evictableBytes() + size > cacheSize) {
+            return false;
+        }
+        long start = System.nanoTime();
+        stallCnt.incrementAndGet();
+        try {
+            while (!tryReserve(size)) {
+                long freed = reclaimer.reclaimAndWait(used.get() + size - cacheSize);
+                if (tryReserve(size)) break;
+                if (freed == 0 && shard.evictOne() < 0) {
+                    return false;
                 }
-            } else {
-                newCachePath = createNewCopy(cachePath, fd);  
             }
+            return true;
+        } finally {
+            stallNanos.addAndGet(System.nanoTime() - start);
         }
-        CacheFile newCaFile = copyFileToNewPath(caFile, newCachePath);
-        if (readOnly)
-            pathCopyMap.get(path).add(newCaFile);
-        
-        fdCopyMap.put(fd, newCaFile);
-        return newCaFile;
     }
 
     /**
-     * addReadCnt: add read count to the last read copy.
+     * installInMemory: cache a version in the memory tier, demoting the versions
+     * it pushes out to the disk tier.
      * @param path       original path
-     * @param fd         file descriptor
+     * @param version    version of the content
+     * @param content    file content
+     * @param len        length of the content
+     * @return the new entry, null if it does not fit in memory
      */
-    public void addReadCnt(String path, int fd) {
-        CacheFile last = pathCopyMap.get(path).getLast();
-        last.readCnt++;
-        fdCopyMap.put(fd, last);
+    public MemoryTier.Entry installInMemory(String path, long version, byte[] content, int len) {
+        List<MemoryTier.Entry> victims = new ArrayList<>();
+        MemoryTier.Entry e = memTier.install(path, version, content, len, victims);
+        for (MemoryTier.Entry victim : victims) {
+            CacheShard shard = shardFor(victim.path);
+            shard.lock.lock();
+            try {
+                shard.demote(victim);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return e;
     }
 
     /**
@@ -315,73 +328,137 @@ public class Cache {
     }
 
     /**
-     * closeFile: close the related files with a file descriptor.
-     * 1. If not read only, if the non-copy version exists, delete the non-copy version,
-     *    rename the current copy to non-copy version, move the corresponding block to the
-     *    first of lru list.
-     * 2. If not read only, if non-copy version not exist, rename the current copy to 
-     *    non-copy copy, add a new related CacheFile object to the first of lru list.
-     * 3. If read only, check the read count. 
-     *    If read count is equal to 0, if the non-copy version exists, delete the copy,
-     *    and move to the first of lru list.
-     *    If read count is equal to 0, if non-copy version not exist, rename the copy to 
-     *    non-copy version, add to first of lru.
-     *    If read count is not equal to 0, read count - 1.
+     * closeFile: close the related files with a file descriptor in its shard.
      * @param fd         file descriptor
      * @return 0, if succeed.
      */
     public int closeFile(int fd) {
         CacheFile caFile = fdCopyMap.get(fd);
-        boolean readOnly = caFile.readOnly;
-        String path = caFile.path;
-        String pathWithoutSubdir = dealWithSubdirs(path);
-        String cacheOrigPath = createCachePath(pathWithoutSubdir);
-        File oldFile = new File(cacheOrigPath);
-        synchronized (this) {
-            if (!readOnly) {
-                if(pathOrigFileMap.containsKey(path)) {
-                    CacheFile oldCaFile = pathOrigFileMap.get(path);
-                    moveFromLru(oldCaFile);
-                    oldCaFile.fileSize = caFile.fileSize;
-                    lruList.addFirst(oldCaFile);
-                    oldFile.delete();
-                    File newFile = new File(caFile.realPath);
-                    newFile.renameTo(oldFile);
-                    caFile.realPath = cacheOrigPath;
-                    
+        CacheShard shard = shardFor(caFile.path);
+        shard.lock.lock();
+        try {
+            shard.closeFile(caFile);
+        } finally {
+            shard.lock.unlock();
+        }
+        fdCopyMap.remove(fd);
+        return 0;
+    }
+
+    /**
+     * recordHit: count an open served by an up-to-date cached version
+     * @param bytes      size of the file
+     */
+    public void recordHit(long bytes) {
+        hitCnt.incrementAndGet();
+        byteHitCnt.addAndGet(Math.max(0, bytes));
+    }
+
+    /**
+     * recordMiss: count an open that fetched the file from server
+     * @param bytes      size of the fetched file
+     */
+    public void recordMiss(long bytes) {
+        missCnt.incrementAndGet();
+        byteMissCnt.addAndGet(Math.max(0, bytes));
+    }
+
+    /**
+     * restore: rebuild the cache from the journal of a previous run, then start
+     * journaling. Recorded files still in the cache directory are reused, the most
+     * recently used first while they fit; their versions are revalidated lazily by
+     * open. Every other file left in the directory (read/write copies of the old
+     * file descriptors) is moved aside at once, so that new copies cannot collide
+     * with it, and deleted in the background.
+     */
+    public void restore() {
+        CacheJournal j = new CacheJournal(cachePath);
+        List<CacheJournal.Record> records = j.load();
+        boolean[] fits = new boolean[records.size()];
+        long total = 0;
+        for (int i = records.size() - 1; i >= 0; i--) {
+            CacheJournal.Record r = records.get(i);
+            File file = new File(createCachePath(r.fileName));
+            if (file.isFile() && file.length() == r.size && total + r.size <= cacheSize) {
+                fits[i] = true;
+                total += r.size;
+            }
+        }
+        Set<String> keepSet = new HashSet<>();
+        keepSet.add(CacheJournal.JOURNAL_NAME);
+        for (int i = 0; i < records.size(); i++) {
+            CacheJournal.Record r = records.get(i);
+            CacheShard shard = shardFor(r.path);
+            shard.lock.lock();
+            try {
+                if (fits[i] && shard.restore(r)) {
+                    keepSet.add(r.fileName);
+                    restoredCnt++;
                 } else {
-                    CacheFile newOrigFile = new CacheFile(path, cacheOrigPath, 0);
-                    newOrigFile.fileSize = caFile.fileSize;
-                    lruList.addFirst(newOrigFile);
-                    pathOrigFileMap.put(path, newOrigFile);
-                    File newFile = new File(caFile.realPath);
-                    newFile.renameTo(oldFile); 
-                }   
-                File newFile = new File(cacheOrigPath);
-                pathTimeMap.put(path, newFile.lastModified());
-                
-            } else {
-                caFile.readCnt--;
-                if (caFile.readCnt == 0) {
-                    File file = new File(caFile.realPath);
-                    if (pathOrigFileMap.containsKey(path)) {
-                        curSize -= (long)file.length();
-                        file.delete();
-                        lruList.remove(pathOrigFileMap.get(path));
-                        lruList.addFirst(pathOrigFileMap.get(path));
-                    } else {
-                        CacheFile newOrigFile = new CacheFile(path, cacheOrigPath, 0);
-                        newOrigFile.fileSize = caFile.fileSize;
-                        lruList.addFirst(newOrigFile);
-                        pathOrigFileMap.put(path, newOrigFile);
-                        File newFile = new File(caFile.realPath);
-                        newFile.renameTo(oldFile);
-                    }
+                    j.remove(r.path);
                 }
+            } finally {
+                shard.lock.unlock();
             }
         }
-        fdCopyMap.remove(fd);
-        return 0;
+        journal = j;
+
+        final File trash = new File(cachePath, ".trash-" + System.currentTimeMillis());
+        File[] files = new File(cachePath).listFiles();
+        if (files == null) return;
+        for (File f : files) {
+            if (f.isDirectory() && f.getName().startsWith(".trash-")) {
+                f.renameTo(new File(cachePath, f.getName() + "-"));
+            } else if (f.isFile() && !keepSet.contains(f.getName())) {
+                trash.mkdir();
+                f.renameTo(new File(trash, f.getName()));
+            }
+        }
+        Thread cleaner = new Thread("cache-orphan-cleaner") {
+            public void run() {
+                File[] dirs = new File(cachePath).listFiles();
+                if (dirs == null) return;
+                for (File dir : dirs) {
+                    if (!dir.isDirectory() || !dir.getName().startsWith(".trash-")) continue;
+                    File[] orphans = dir.listFiles();
+                    if (orphans != null) {
+                        for (File orphan : orphans) orphan.delete();
+                    }
+                    dir.delete();
+                }
+            }
+        };
+        cleaner.setDaemon(true);
+        cleaner.start();
+    }
+
+    /**
+     * stats: hit/miss counters of the eviction policy in use, and reclaimer counters
+     * @return a one-line summary
+     */
+    public String stats() {
+        long hits = hitCnt.get();
+        long misses = missCnt.get();
+        long byteHits = byteHitCnt.get();
+        long byteMisses = byteMissCnt.get();
+        double hitRatio = (hits + misses) == 0 ? 0 : (double) hits / (hits + misses);
+        double byteHitRatio = (byteHits + byteMisses) == 0 ? 0 : (double) byteHits / (byteHits + byteMisses);
+        return String.format("policy=%s shards=%d used=%d hits=%d misses=%d hitRatio=%.3f byteHits=%d byteMisses=%d byteHitRatio=%.3f evictions=%d"
+                + " reclaimed=%d reclaimRate=%.0fB/s stalls=%d stallMs=%d linkedCopies=%d"
+                + " sent=%d rangeUploads=%d deltaUploads=%d fullUploads=%d cleanCloses=%d closeMs=%.2f"
+                + " deltaDownloads=%d deltaFetched=%d sharedFetches=%d",
+                policyName, shards.length, used.get(), hits, misses, hitRatio, byteHits, byteMisses, byteHitRatio, evictCnt.get(),
+                reclaimer.reclaimedBytes.get(), reclaimer.reclaimRate(), stallCnt.get(), stallNanos.get() / 1000000, linkCnt.get(),
+                sentBytes.get(), rangeUploadCnt.get(), deltaCnt.get(), fullUploadCnt.get(), cleanCloseCnt.get(),
+                closeCnt.get() == 0 ? 0 : closeNanos.get() / 1e6 / closeCnt.get(),
+                deltaDownloadCnt.get(), deltaFetchBytes.get(), sharedFetchCnt.get())
+                + (memTier == null ? "" : " " + memTier.stats())
+                + (blocks == null ? "" : " " + blocks.stats())
+                + (validator == null ? "" : " " + validator.stats())
+                + (leases == null ? "" : " " + leases.stats())
+                + " " + Compression.stats()
+                + " " + BufferPool.stats()
+                + (journal == null ? "" : " restored=" + restoredCnt);
     }
 
-}
\ No newline at end of file
+}
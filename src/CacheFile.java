@@ -14,15 +14,27 @@ public class CacheFile implements Serializable {
     boolean isDir;         // the file is direcotry or not
     boolean readOnly;      // if the file is read only
     int readCnt;           // read count on the file
-    long modifiedTime;     // modified time
+    long modifiedTime;     // server version of the content
     int error = 0;         // to transmit error
     long fileSize;         // size of the file
+    long reserved;         // cache bytes reserved for this copy
+    boolean inMemory;      // served by the memory tier, no file in cache directory
+    boolean inBlocks;      // served block by block from the block store
+    boolean linked;        // read copy hard-linked to the original file, charged nothing
+    String basePath;       // committed version a copy-on-write copy is based on
+    transient java.nio.MappedByteBuffer mapped;  // mapping shared by the readers of this version
+
+    /* intrusive links of the LruList this object is in (not transmitted) */
+    transient CacheFile lruPrev;
+    transient CacheFile lruNext;
+    transient LruList lruOwner;
+    transient long lruSize;   // file size accounted when linked
     
     /**
      * CacheFile constructor
      * @param p         original path
      * @param ap        absolute path stored in cache
-     * @param time      modified time
+     * @param time      server version
      */
     public CacheFile(String p, String ap, long time) {
         path = p;
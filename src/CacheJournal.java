@@ -0,0 +1,192 @@
+/**
+ * CacheJournal.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * CacheJournal: append-only metadata journal of the cached original files, so that
+ * a restarted proxy can reuse the files already in the cache directory.
+ * Each record is a PUT (path, file name, version, size) or a DEL (path); the order
+ * of the records gives the recency. The journal is compacted to the live records when
+ * it is loaded and whenever it grows well past them, and flushed once per second.
+ */
+public class CacheJournal {
+
+    public static final String JOURNAL_NAME = ".cache-journal";
+
+    private static final byte PUT = 1;
+    private static final byte DEL = 2;
+
+    /**
+     * Record: metadata of one cached original file
+     */
+    public static class Record {
+        public String path;       // original path
+        public String fileName;   // file name in the cache directory
+        public long version;      // server version
+        public long size;         // file size
+    }
+
+    private File file;
+    private DataOutputStream out;
+    private int appended;   // records written since the last compaction
+
+    /* map contains path as key, its live Record as value, from the least recently used */
+    private LinkedHashMap<String, Record> liveMap = new LinkedHashMap<>();
+
+    /**
+     * CacheJournal constructor
+     * @param cacheDir       the cache directory
+     */
+    public CacheJournal(String cacheDir) {
+        file = new File(cacheDir, JOURNAL_NAME);
+    }
+
+    /**
+     * load: replay the journal, compact it and open it for appending.
+     * A torn record at the end (e.g. after a crash) ends the replay.
+     * @return live records, from the least recently used
+     */
+    public synchronized List<Record> load() {
+        if (file.exists()) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                while (true) {
+                    byte op = in.readByte();
+                    String path = in.readUTF();
+                    if (op == PUT) {
+                        Record r = new Record();
+                        r.path = path;
+                        r.fileName = in.readUTF();
+                        r.version = in.readLong();
+                        r.size = in.readLong();
+                        liveMap.remove(path);
+                        liveMap.put(path, r);
+                    } else {
+                        liveMap.remove(path);
+                    }
+                }
+            } catch (EOFException e) {
+                // end of journal
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                try {
+                    if (in != null) in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        compact();
+        Thread flusher = new Thread("cache-journal-flusher") {
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    flush();
+                }
+            }
+        };
+        flusher.setDaemon(true);
+        flusher.start();
+        return new ArrayList<>(liveMap.values());
+    }
+
+    /**
+     * put: record a cached original file as the most recently used
+     * @param path       original path
+     * @param fileName   file name in the cache directory
+     * @param version    server version
+     * @param size       file size
+     */
+    public synchronized void put(String path, String fileName, long version, long size) {
+        Record r = new Record();
+        r.path = path;
+        r.fileName = fileName;
+        r.version = version;
+        r.size = size;
+        liveMap.remove(path);
+        liveMap.put(path, r);
+        try {
+            out.writeByte(PUT);
+            out.writeUTF(path);
+            out.writeUTF(fileName);
+            out.writeLong(version);
+            out.writeLong(size);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        appended();
+    }
+
+    /**
+     * remove: record that a path is no longer cached
+     * @param path       original path
+     */
+    public synchronized void remove(String path) {
+        if (liveMap.remove(path) == null) return;
+        try {
+            out.writeByte(DEL);
+            out.writeUTF(path);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        appended();
+    }
+
+    /**
+     * appended: compact once the journal is four times larger than the live records
+     */
+    private void appended() {
+        if (++appended > 4 * liveMap.size() + 1024) {
+            compact();
+        }
+    }
+
+    /**
+     * flush: push buffered records to the file
+     */
+    public synchronized void flush() {
+        try {
+            if (out != null) out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * compact: rewrite the journal with the live records only, then replace it
+     * atomically with a rename.
+     */
+    private void compact() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            if (out != null) out.close();
+            DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            for (Record r : liveMap.values()) {
+                tmpOut.writeByte(PUT);
+                tmpOut.writeUTF(r.path);
+                tmpOut.writeUTF(r.fileName);
+                tmpOut.writeLong(r.version);
+                tmpOut.writeLong(r.size);
+            }
+            tmpOut.close();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("cannot replace " + file);
+            }
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            appended = 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,507 @@
+/**
+ * CacheShard.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CacheShard: one hash partition of the cache.
+ * A shard owns the state of the paths hashed to it. Space is reserved from the
+ * atomic counter of the whole cache, so reserving never needs the shard lock; the
+ * other methods below expect the caller to hold it.
+ */
+public class CacheShard {
+
+    /* the cache this shard belongs to */
+    private Cache cache;
+
+    /* index of the shard */
+    public final int id;
+
+    /* lock guarding the maps and the eviction policy of this shard */
+    public final ReentrantLock lock = new ReentrantLock();
+
+    /* fair share of the cache size; the reclaimer evicts first from shards above it */
+    public long slice;
+
+    /* current allocated size in the shard */
+    public AtomicLong curSize = new AtomicLong();
+
+    /* map contains path as key, a linkedlist of all the read copies of the poth as a value */
+    public ConcurrentHashMap<String, LinkedList<CacheFile>> pathCopyMap;
+
+    /* map contains path as key, the file version of the path as a value */
+    public ConcurrentHashMap<String, Long> pathTimeMap;
+
+    /* map contains path as a key, the corresponding non-copy CacheFile object as a value */
+    public ConcurrentHashMap<String, CacheFile> pathOrigFileMap;
+
+    /* eviction policy ranking the cached original files */
+    public Cache.EvictionPolicy policy;
+
+    /**
+     * CacheShard constructor
+     * @param cache        the cache this shard belongs to
+     * @param id           index of the shard
+     * @param size         fair share of the cache size
+     * @param policyName   the name of eviction policy
+     */
+    public CacheShard(Cache cache, int id, long size, String policyName) {
+        this.cache = cache;
+        this.id = id;
+        slice = size;
+        pathCopyMap = new ConcurrentHashMap<>();
+        pathTimeMap = new ConcurrentHashMap<>();
+        pathOrigFileMap = new ConcurrentHashMap<>();
+        policy = Cache.createPolicy(policyName, size);
+    }
+
+    /**
+     * curSize: current allocated size in the shard
+     * @return bytes
+     */
+    public long curSize() {
+        return curSize.get();
+    }
+
+    /**
+     * release: give bytes of the shard back to the cache
+     * @param size        bytes to release
+     */
+    public void release(long size) {
+        curSize.addAndGet(-size);
+        cache.release(size);
+    }
+
+    /**
+     * createNewCopy: create a copy of the file in the cache
+     * @param cachePath       the absolute path of a file in the cache
+     * @param fd              file descriptor
+     * @return the absolute path of new copy file
+     */
+    private String createNewCopy(String cachePath, int fd) {
+        String newPath = cachePath + fd;
+        FileOutputStream output = null;
+        FileInputStream input = null;
+        byte[] buf = BufferPool.get(Cache.CHUNKSIZE);
+        try {
+            output = new FileOutputStream(newPath);
+            input = new FileInputStream(cachePath);
+            int readLen = 0;
+            while ((readLen = input.read(buf, 0, Cache.CHUNKSIZE)) > 0) {
+                output.write(buf, 0, readLen);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                output.close();
+                input.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        BufferPool.put(buf);
+        return newPath;
+    }
+
+    /**
+     * linkCopy: make a read copy share the content of the cached file by a hard link.
+     * Original files are never written in place, so the copy keeps its version when
+     * the original is replaced.
+     * @param cachePath       the absolute path of a file in the cache
+     * @param newPath         the absolute path of the copy
+     * @return true, if linked; false, if the file system cannot link
+     */
+    private boolean linkCopy(String cachePath, String newPath) {
+        try {
+            Files.deleteIfExists(Paths.get(newPath));
+            Files.createLink(Paths.get(newPath), Paths.get(cachePath));
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * releaseShared: give back the bytes of an original file that was dropped, unless
+     * an open read copy still links to them; then they stay charged to that copy.
+     * @param path        original path
+     * @param size        bytes charged to the original file
+     * @return the size freed up
+     */
+    private long releaseShared(String path, long size) {
+        LinkedList<CacheFile> copies = pathCopyMap.get(path);
+        if (copies != null) {
+            for (CacheFile copy : copies) {
+                if (copy.linked && copy.readCnt > 0) {
+                    copy.linked = false;
+                    copy.reserved = size;
+                    return 0;
+                }
+            }
+        }
+        release(size);
+        return size;
+    }
+
+    /**
+     * dropOrig: move an original file about to be deleted or replaced out of the
+     * eviction policy, and give back its bytes unless a read copy still shares them.
+     * @param origFile    original CacheFile object
+     */
+    public void dropOrig(CacheFile origFile) {
+        long linkedSize = origFile == null ? 0 : origFile.lruSize;
+        if (policy.remove(origFile)) {
+            releaseShared(origFile.path, linkedSize);
+        }
+    }
+
+    /**
+     * copyFileToNewPath: create a new copied CacheFile object with a new path.
+     * @param caFile       original CacheFile object
+     * @param newPath      new absolute path stored in cache
+     * @return a copy of the original CacheFile object but with the new path
+     */
+    private CacheFile copyFileToNewPath(CacheFile caFile, String newPath) {
+        CacheFile newFile = new CacheFile(caFile.path, newPath, caFile.modifiedTime);
+        newFile.isDir = caFile.isDir;
+        newFile.readCnt = 1;
+        newFile.readOnly = caFile.readOnly;
+        newFile.fileSize = caFile.fileSize;
+        return newFile;
+    }
+
+    /**
+     * pathExist: whether shard has file with such path
+     * @param path
+     * @return true, if exist; false, if not.
+     */
+    public boolean pathExist(String path) {
+        return pathTimeMap.containsKey(path);
+    }
+
+    /**
+     * lastModifiedTime: get the server version of the file with the path in the shard
+     * @param path       original path of a file
+     * @return the version, -1 if the path is not cached
+     */
+    public long lastModifiedTime(String path) {
+        if (!pathExist(path)) return -1;
+        return pathTimeMap.get(path);
+    }
+
+    /**
+     * updateTime: update the latest timestamp of the file with the path
+     * @param path       original path of a file
+     * @param time       the latest time
+     */
+    public void updateTime(String path, long time) {
+        pathTimeMap.put(path, time);
+        if (!pathCopyMap.containsKey(path)) {
+            pathCopyMap.put(path, new LinkedList<>());
+        }
+    }
+
+    /**
+     * getLastCopy: get the latest read copy of the path
+     * @param path       original path of a file
+     * @return CacheFile object
+     */
+    public CacheFile getLastCopy(String path) {
+        if (!pathCopyMap.containsKey(path)) return null;
+        if (pathCopyMap.get(path).size() == 0) return null;
+        return pathCopyMap.get(path).getLast();
+    }
+
+    /**
+     * lastCopyIsLatest: whether the last read copy is up-to-date
+     * @param path       original path of a file
+     * @param time       the current up-to-date time
+     * @return true, if latest; false, if not
+     */
+    public boolean lastCopyIsLatest(String path, long time) {
+        if (!pathExist(path)) return false;
+        CacheFile last = getLastCopy(path);
+        if (last == null) return false;
+        if (last.modifiedTime != time) return false;
+        if (last.readCnt == 0) return false;
+        return true;
+    }
+
+    /**
+     * incrCacheSize: add to the current allocated size without evicting anything.
+     * @param size
+     * @return true, if value after add will not be larger than cache size limit
+     */
+    public boolean incrCacheSize(long size) {
+        if (!cache.tryReserve(size)) return false;
+        curSize.addAndGet(size);
+        return true;
+    }
+
+    /**
+     * evictOne: evict the file chosen by the eviction policy.
+     * Nothing is freed up if an open read copy still links to the file.
+     * @return the size freed up, -1 if nothing is evictable
+     */
+    public long evictOne() {
+        CacheFile last = policy.victim();
+        if (last == null) return -1;
+        cache.evictCnt.incrementAndGet();
+        File file = new File(last.realPath);
+        file.delete();
+        pathOrigFileMap.remove(last.path);
+        pathTimeMap.remove(last.path);
+        journalRemove(last.path);
+        return releaseShared(last.path, last.lruSize);
+    }
+
+    /**
+     * evict: wait for the reclaimer to free up demanded size, and allocate it.
+     * Only called when the hard limit is hit; the caller holds the shard lock.
+     * @param size        the size to be freed up
+     * @return true, if eviction succeed; false, if failed.
+     */
+    public boolean evict(long size) {
+        if (!cache.reserveBlocking(size, this)) return false;
+        curSize.addAndGet(size);
+        return true;
+    }
+
+    /**
+     * moveFromLru: move a file out of the eviction policy, and decrease current size.
+     * @param caFile      the CacheFile object to be moved
+     */
+    public void moveFromLru(CacheFile caFile) {
+        long linkedSize = caFile == null ? 0 : caFile.lruSize;
+        if (policy.remove(caFile)) {
+            release(linkedSize);
+        }
+    }
+
+    /**
+     * pushNewFile: push a new copy file in the shard
+     * 1. If not read only, create a copy-on-write version on top of the cached file;
+     *    nothing is copied or reserved until it is written (see CowFile).
+     * 2. If read only, hard-link the copy to the cached file; it is charged nothing
+     *    while the two share their content.
+     * 3. If the file system cannot link and add the size of the copy to current size
+     *    will not exceed the size limit, create a new copy of the original CacheFile
+     *    object with the path.
+     * 4. If the above is not, rename the non-copy file in cache with a copy name,
+     *    read on that file and move the path from lru list.
+     * @param caFile           original CacheFile object
+     * @param fd               file descriptor
+     * @param readOnly         if the file is read only
+     * @return the new copy (CacheFile object)
+     */
+    public CacheFile pushNewFile(CacheFile caFile, int fd, boolean readOnly) {
+        String path = caFile.path;
+        String cachePath = caFile.realPath;
+        String newCachePath = cachePath + fd;
+        if (!readOnly) {
+            CacheFile newCaFile = copyFileToNewPath(caFile, newCachePath);
+            newCaFile.basePath = cachePath;
+            cache.fdCopyMap.put(fd, newCaFile);
+            return newCaFile;
+        }
+        CacheFile newCaFile = copyFileToNewPath(caFile, newCachePath);
+        if (linkCopy(cachePath, newCachePath)) {
+            newCaFile.linked = true;
+            cache.linkCnt.incrementAndGet();
+        } else if (!incrCacheSize(caFile.fileSize)) {
+            CacheFile origFile = pathOrigFileMap.get(caFile.path);
+            File file = new File(origFile.realPath);
+            File newFile = new File(newCachePath);
+            policy.remove(origFile);
+            file.renameTo(newFile);
+            pathOrigFileMap.remove(path);
+            pathTimeMap.remove(path);
+            journalRemove(path);
+            newCaFile.reserved = caFile.fileSize;
+        } else {
+            createNewCopy(cachePath, fd);
+            newCaFile.reserved = caFile.fileSize;
+        }
+        pathCopyMap.get(path).add(newCaFile);
+
+        cache.fdCopyMap.put(fd, newCaFile);
+        return newCaFile;
+    }
+
+    /**
+     * addReadCnt: add read count to the last read copy.
+     * @param path       original path
+     * @param fd         file descriptor
+     */
+    public void addReadCnt(String path, int fd) {
+        CacheFile last = pathCopyMap.get(path).getLast();
+        last.readCnt++;
+        cache.fdCopyMap.put(fd, last);
+    }
+
+    /**
+     * closeFile: close the related files with a CacheFile object.
+     * 1. If not read only, if the non-copy version exists, delete the non-copy version,
+     *    rename the current copy to non-copy version, move the corresponding block to the
+     *    first of lru list.
+     * 2. If not read only, if non-copy version not exist, rename the current copy to
+     *    non-copy copy, add a new related CacheFile object to the first of lru list.
+     * 3. If read only, check the read count.
+     *    If read count is equal to 0, drop the shared mapping of the copy.
+     *    If read count is equal to 0, if the non-copy version exists, delete the copy,
+     *    and move to the first of lru list.
+     *    If read count is equal to 0, if non-copy version not exist, rename the copy to
+     *    non-copy version, add to first of lru.
+     *    If read count is not equal to 0, read count - 1.
+     * @param caFile     CacheFile object opened by the file descriptor
+     * @return 0, if succeed.
+     */
+    public int closeFile(CacheFile caFile) {
+        boolean readOnly = caFile.readOnly;
+        String path = caFile.path;
+        String pathWithoutSubdir = cache.dealWithSubdirs(path);
+        String cacheOrigPath = cache.createCachePath(pathWithoutSubdir);
+        File oldFile = new File(cacheOrigPath);
+        if (!readOnly) {
+            if(pathOrigFileMap.containsKey(path)) {
+                CacheFile oldCaFile = pathOrigFileMap.get(path);
+                dropOrig(oldCaFile);
+                oldCaFile.fileSize = caFile.fileSize;
+                policy.add(oldCaFile);
+                oldFile.delete();
+                File newFile = new File(caFile.realPath);
+                newFile.renameTo(oldFile);
+                caFile.realPath = cacheOrigPath;
+
+            } else {
+                CacheFile newOrigFile = new CacheFile(path, cacheOrigPath, 0);
+                newOrigFile.fileSize = caFile.fileSize;
+                policy.add(newOrigFile);
+                pathOrigFileMap.put(path, newOrigFile);
+                File newFile = new File(caFile.realPath);
+                newFile.renameTo(oldFile);
+            }
+            pathTimeMap.put(path, caFile.modifiedTime);
+            journalPut(pathOrigFileMap.get(path));
+
+        } else {
+            caFile.readCnt--;
+            if (caFile.readCnt == 0) {
+                caFile.mapped = null;
+                File file = new File(caFile.realPath);
+                if (pathOrigFileMap.containsKey(path)) {
+                    release(caFile.reserved);
+                    file.delete();
+                    policy.add(pathOrigFileMap.get(path));
+                } else {
+                    CacheFile newOrigFile = new CacheFile(path, cacheOrigPath, 0);
+                    newOrigFile.fileSize = caFile.fileSize;
+                    policy.add(newOrigFile);
+                    pathOrigFileMap.put(path, newOrigFile);
+                    File newFile = new File(caFile.realPath);
+                    newFile.renameTo(oldFile);
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * unlinkPath: drop every cache entry of a path unlinked on server
+     * @param path       original path
+     */
+    public void unlinkPath(String path) {
+        pathTimeMap.remove(path);
+        CacheFile unlinkCaFile = pathOrigFileMap.get(path);
+        dropOrig(unlinkCaFile);
+        policy.forget(path);
+        pathCopyMap.remove(path);
+        pathOrigFileMap.remove(path);
+        journalRemove(path);
+    }
+
+    /**
+     * dropPath: drop every cache entry of a path and delete its cached file
+     * @param path       original path
+     */
+    public void dropPath(String path) {
+        unlinkPath(path);
+        new File(cache.createCachePath(cache.dealWithSubdirs(path))).delete();
+    }
+
+    /**
+     * demote: write a version pushed out of the memory tier into the cache directory.
+     * Nothing is evicted for it; it is dropped if the disk tier is full or already
+     * holds the path.
+     * @param e          memory tier entry
+     */
+    public void demote(MemoryTier.Entry e) {
+        if (pathOrigFileMap.containsKey(e.path)) return;
+        long size = e.data.capacity();
+        if (!incrCacheSize(size)) return;
+        String cachePath = cache.createCachePath(cache.dealWithSubdirs(e.path));
+        try {
+            FileOutputStream output = new FileOutputStream(cachePath);
+            try {
+                output.getChannel().write(e.data.duplicate());
+            } finally {
+                output.close();
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            release(size);
+            return;
+        }
+        CacheFile origFile = new CacheFile(e.path, cachePath, e.version);
+        origFile.fileSize = size;
+        pathOrigFileMap.put(e.path, origFile);
+        updateTime(e.path, e.version);
+        policy.add(origFile);
+        journalPut(origFile);
+    }
+
+    /**
+     * restore: reuse a cached file recorded in the journal by a previous run.
+     * Its version is revalidated against the server on the first open.
+     * @param r          journal record
+     * @return true, if restored; false, if the cache is full
+     */
+    public boolean restore(CacheJournal.Record r) {
+        if (!incrCacheSize(r.size)) return false;
+        CacheFile origFile = new CacheFile(r.path, cache.createCachePath(r.fileName), r.version);
+        origFile.fileSize = r.size;
+        pathOrigFileMap.put(r.path, origFile);
+        updateTime(r.path, r.version);
+        policy.add(origFile);
+        return true;
+    }
+
+    /**
+     * journalPut: record the cached original file of a path as the latest used
+     * @param origFile   original CacheFile object
+     */
+    public void journalPut(CacheFile origFile) {
+        if (cache.journal == null || origFile == null) return;
+        Long version = pathTimeMap.get(origFile.path);
+        if (version == null) return;
+        cache.journal.put(origFile.path, new File(origFile.realPath).getName(),
+                version, origFile.fileSize);
+    }
+
+    /**
+     * journalRemove: record that a path has no cached original file any more
+     * @param path       original path
+     */
+    private void journalRemove(String path) {
+        if (cache.journal != null) cache.journal.remove(path);
+    }
+}
@@ -4,14 +4,21 @@
  * Andrew ID: jiayuem
  */
 
-import java.io.Serializable;
+import java.io.*;
+import java.util.zip.DataFormatException;
 
 public class Chunk implements Serializable{
 
-    private static final long serialVersionUID = 2L;
+    private static final long serialVersionUID = 3L;
     public int size; // chunk size
     public boolean remain; // determine whether read/write process needs following chunks
-    byte[] content; // chunk content buffer
+    byte[] content; // chunk content buffer, from BufferPool, may be longer than size
+    boolean recycle; // give the content back to the pool once sent
+
+    /* payload encodings on the wire */
+    static final byte NONE = 0;
+    static final byte RAW = 1;
+    static final byte DEFLATED = 2;
 
     /**
      * Chunk constructor
@@ -21,6 +28,79 @@ public class Chunk implements Serializable{
     public Chunk(int size) {
         this.size = size;
         if (size > 0)
-            content = new byte[size];
+            content = BufferPool.get(size);
+    }
+
+    /**
+     * release: give the content back to the pool; the chunk must not be used after
+     */
+    public void release() {
+        BufferPool.put(content);
+        content = null;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        writeTo(out);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException {
+        readFrom(in);
+    }
+
+    /**
+     * writeTo: send the first size bytes of the content, compressed if worth it.
+     * A chunk marked to recycle is released once sent.
+     * @param out       object or transport stream
+     * @throws IOException
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size);
+        out.writeBoolean(remain);
+        if (size <= 0 || content == null) {
+            out.writeByte(NONE);
+            return;
+        }
+        byte[] packed = BufferPool.get(size);
+        try {
+            int packedLen = Compression.deflate(content, size, packed);
+            if (packedLen < 0) {
+                out.writeByte(RAW);
+                out.write(content, 0, size);
+            } else {
+                out.writeByte(DEFLATED);
+                out.writeInt(packedLen);
+                out.write(packed, 0, packedLen);
+            }
+        } finally {
+            BufferPool.put(packed);
+        }
+        if (recycle) release();
+    }
+
+    /**
+     * readFrom: receive a chunk sent by writeTo into a pooled buffer
+     * @param in        object or transport stream
+     * @throws IOException
+     */
+    void readFrom(DataInput in) throws IOException {
+        size = in.readInt();
+        remain = in.readBoolean();
+        byte encoding = in.readByte();
+        if (encoding == RAW) {
+            content = BufferPool.get(size);
+            in.readFully(content, 0, size);
+        } else if (encoding == DEFLATED) {
+            int packedLen = in.readInt();
+            byte[] packed = BufferPool.get(packedLen);
+            try {
+                in.readFully(packed, 0, packedLen);
+                content = BufferPool.get(size);
+                Compression.inflate(packed, packedLen, content, size);
+            } catch (DataFormatException e) {
+                throw new InvalidObjectException("corrupt chunk: " + e.getMessage());
+            } finally {
+                BufferPool.put(packed);
+            }
+        }
     }
-}
\ No newline at end of file
+}
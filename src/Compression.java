@@ -0,0 +1,138 @@
+/**
+ * Compression.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression: Deflate for chunk payloads on the wire.
+ * Each chunk says whether it is compressed, so the receiver never has to know the
+ * sender's setting. The sender adapts: when a chunk does not shrink below POORRATIO
+ * it is sent as is, and the next SKIPCHUNKS chunks are sent without trying, after
+ * which the ratio is sampled again.
+ */
+public class Compression {
+
+    /* payloads smaller than this are not worth compressing */
+    public static final int MINSIZE = 512;
+    /* compressed/raw size above which compression is skipped for a while */
+    public static final double POORRATIO = 0.9;
+    public static final int SKIPCHUNKS = 16;
+
+    /* whether chunks sent from this process are compressed */
+    public static volatile boolean enabled = true;
+
+    private static AtomicInteger skip = new AtomicInteger();
+
+    private static ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED);
+        }
+    };
+    private static ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    private static ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    /* payload bytes sent, bytes put on the wire for them, chunks compressed, chunks
+       sent raw because the sampled ratio was poor, and CPU time spent */
+    public static AtomicLong rawBytes = new AtomicLong();
+    public static AtomicLong wireBytes = new AtomicLong();
+    public static AtomicLong compressedCnt = new AtomicLong();
+    public static AtomicLong skippedCnt = new AtomicLong();
+    public static AtomicLong cpuNanos = new AtomicLong();
+
+    /**
+     * cpuTime: CPU time of the current thread, wall time if not supported
+     * @return nanoseconds
+     */
+    private static long cpuTime() {
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * deflate: compress a payload if it is worth it
+     * @param buf        payload buffer
+     * @param len        payload length
+     * @param out        buffer for the compressed bytes, at least len long
+     * @return compressed length, < 0 to send the payload as is
+     */
+    public static int deflate(byte[] buf, int len, byte[] out) {
+        rawBytes.addAndGet(len);
+        if (!enabled || len < MINSIZE) {
+            wireBytes.addAndGet(len);
+            return -1;
+        }
+        if (skip.get() > 0 && skip.decrementAndGet() >= 0) {
+            skippedCnt.incrementAndGet();
+            wireBytes.addAndGet(len);
+            return -1;
+        }
+        long start = cpuTime();
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(buf, 0, len);
+        deflater.finish();
+        int limit = (int) (len * POORRATIO);
+        int n = 0;
+        while (!deflater.finished() && n < limit) {
+            n += deflater.deflate(out, n, limit - n);
+        }
+        cpuNanos.addAndGet(cpuTime() - start);
+        if (!deflater.finished()) {
+            skip.set(SKIPCHUNKS);
+            wireBytes.addAndGet(len);
+            return -1;
+        }
+        compressedCnt.incrementAndGet();
+        wireBytes.addAndGet(n);
+        return n;
+    }
+
+    /**
+     * inflate: decompress a payload
+     * @param packed     compressed bytes
+     * @param packedLen  compressed length
+     * @param buf        buffer for the payload
+     * @param len        payload length
+     * @throws DataFormatException if the bytes are corrupt
+     */
+    public static void inflate(byte[] packed, int packedLen, byte[] buf, int len) throws DataFormatException {
+        long start = cpuTime();
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(packed, 0, packedLen);
+        int n = 0;
+        while (n < len && !inflater.finished()) {
+            int got = inflater.inflate(buf, n, len - n);
+            if (got == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("truncated payload");
+            }
+            n += got;
+        }
+        cpuNanos.addAndGet(cpuTime() - start);
+        if (n != len) throw new DataFormatException("payload length " + n + " != " + len);
+    }
+
+    /**
+     * stats: compression counters of the chunks sent from this process
+     * @return a one-line summary
+     */
+    public static String stats() {
+        long raw = rawBytes.get();
+        long wire = wireBytes.get();
+        return String.format("chunkBytes=%d wireBytes=%d savedBytes=%d compressedChunks=%d skippedChunks=%d compressMs=%.1f",
+                raw, wire, raw - wire, compressedCnt.get(), skippedCnt.get(), cpuNanos.get() / 1e6);
+    }
+}
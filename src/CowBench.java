@@ -0,0 +1,91 @@
+/**
+ * CowBench.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.rmi.Naming;
+import java.rmi.registry.LocateRegistry;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * CowBench: cache space charged by writes through copy-on-write versions, through a
+ * proxy client in this process and one shard. A write into a file smaller than a
+ * copy-on-write block must be charged the file's size, not the whole block, so a
+ * cache smaller than CowFile.BLOCKSIZE still takes small writes to small files.
+ * Each file is opened for writing, written at its middle, closed and read back,
+ * and its content checked against the server's.
+ *
+ * java CowBench [port] [cacheSize] [fileSizes]
+ *   e.g. java CowBench 15480 16000 100,1000,10000
+ */
+public class CowBench {
+
+    private static final int WRITELEN = 10;
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 15480;
+        long cacheSize = args.length > 1 ? Long.parseLong(args[1]) : CowFile.BLOCKSIZE / 4;
+        String[] sizes = (args.length > 2 ? args[2] : "100,1000,10000").split(",");
+
+        File dir = File.createTempFile("cow-bench", "");
+        dir.delete();
+        File serverDir = new File(dir, "server");
+        File cacheDir = new File(dir, "cache");
+        serverDir.mkdirs();
+        cacheDir.mkdirs();
+
+        Server server = new Server(serverDir.getAbsolutePath());
+        LocateRegistry.createRegistry(port);
+        Naming.rebind("//127.0.0.1:" + port + "/Server", server);
+        FileHandling client = Proxy.newClient(new String[] {"127.0.0.1", "" + port,
+                cacheDir.getAbsolutePath(), "" + cacheSize, "shards=1", "journal=false"});
+
+        boolean ok = true;
+        Random random = new Random(1);
+        for (String size : sizes) {
+            int fileSize = Integer.parseInt(size);
+            String path = "data-" + fileSize;
+            byte[] content = new byte[fileSize];
+            random.nextBytes(content);
+            try (FileOutputStream out = new FileOutputStream(new File(serverDir, path))) {
+                out.write(content);
+            }
+            byte[] patch = new byte[WRITELEN];
+            random.nextBytes(patch);
+            int at = Math.max(0, fileSize / 2 - WRITELEN / 2);
+            byte[] expected = Arrays.copyOf(content, Math.max(fileSize, at + WRITELEN));
+            System.arraycopy(patch, 0, expected, at, WRITELEN);
+
+            int fd = client.open(path, FileHandling.OpenOption.WRITE);
+            long written = fd;
+            if (fd >= 0) {
+                client.lseek(fd, at, FileHandling.LseekOption.FROM_START);
+                written = client.write(fd, patch);
+                client.close(fd);
+            }
+            byte[] got = new byte[expected.length + 1];
+            int total = 0;
+            fd = client.open(path, FileHandling.OpenOption.READ);
+            if (fd >= 0) {
+                long n;
+                byte[] buf = new byte[4096];
+                while ((n = client.read(fd, buf)) > 0 && total + n <= got.length) {
+                    System.arraycopy(buf, 0, got, total, (int) n);
+                    total += n;
+                }
+                client.close(fd);
+            }
+            boolean same = written == WRITELEN && total == expected.length
+                    && Arrays.equals(expected, Arrays.copyOf(got, total));
+            ok &= same;
+            System.out.printf("cacheSize=%d fileBytes=%d written=%d readBack=%d %s%n",
+                    cacheSize, fileSize, written, total, same ? "ok" : "FAIL");
+        }
+        if (!ok) System.err.println("copy-on-write write refused or wrong");
+        System.exit(ok ? 0 : 1);
+    }
+}
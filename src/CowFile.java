@@ -0,0 +1,302 @@
+/**
+ * CowFile.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * CowFile: a private writable version of a cached file, copied on write.
+ * Unmodified blocks are read from the committed version (the base), which is opened
+ * once so it stays readable even if the cache replaces or evicts it. A block is copied
+ * into the sparse overlay file only when a write first touches it. Reads merge the
+ * two. commit() turns the overlay into the whole new version at close.
+ * The exact byte ranges written are kept as merged extents, so that only those need
+ * to be uploaded.
+ */
+public class CowFile implements OpenFile {
+
+    /* copy-on-write block size */
+    public static final int BLOCKSIZE = 64 * 1024;
+
+    private String basePath;
+    private String overlayPath;
+
+    private RandomAccessFile base;     // null if there was no committed version
+    private Object baseKey;            // file key of the base, to detect replacement
+    private long baseLen;
+
+    private RandomAccessFile overlay;  // created on the first write
+    private BitSet dirty = new BitSet();
+
+    /* extents written, start offset as key and end offset as value, never overlapping */
+    private TreeMap<Long, Long> extents = new TreeMap<>();
+
+    private long length;
+    private long pos;
+
+    /**
+     * CowFile constructor
+     * @param basePath       absolute path of the committed version in cache
+     * @param overlayPath    absolute path of the private version in cache
+     * @throws IOException
+     */
+    public CowFile(String basePath, String overlayPath) throws IOException {
+        this.basePath = basePath;
+        this.overlayPath = overlayPath;
+        File file = new File(basePath);
+        if (file.exists()) {
+            base = new RandomAccessFile(file, "r");
+            baseLen = base.length();
+            baseKey = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        }
+        length = baseLen;
+    }
+
+    /**
+     * readBase: read a range of the committed version, zeros beyond its end
+     * @param from       byte offset in the file
+     * @param buf        read buffer
+     * @param off        offset in the buffer
+     * @param len        length to read
+     * @throws IOException
+     */
+    private void readBase(long from, byte[] buf, int off, int len) throws IOException {
+        int baseBytes = (int) Math.max(0, Math.min(len, baseLen - from));
+        if (baseBytes > 0) {
+            base.seek(from);
+            base.readFully(buf, off, baseBytes);
+        }
+        Arrays.fill(buf, off + baseBytes, off + len, (byte) 0);
+    }
+
+    /**
+     * ensureOverlay: create the overlay file on first use
+     * @throws IOException
+     */
+    private void ensureOverlay() throws IOException {
+        if (overlay == null) {
+            overlay = new RandomAccessFile(overlayPath, "rw");
+            overlay.setLength(0);
+        }
+    }
+
+    /**
+     * materializeBlock: copy a block of the committed version into the overlay
+     * @param block      block index
+     * @throws IOException
+     */
+    private void materializeBlock(long block) throws IOException {
+        long start = block * BLOCKSIZE;
+        int len = (int) Math.max(0, Math.min(BLOCKSIZE, baseLen - start));
+        if (len > 0) {
+            byte[] buf = BufferPool.get(len);
+            try {
+                readBase(start, buf, 0, len);
+                overlay.seek(start);
+                overlay.write(buf, 0, len);
+            } finally {
+                BufferPool.put(buf);
+            }
+        }
+        dirty.set((int) block);
+    }
+
+    @Override
+    public int read(byte[] buf) throws IOException {
+        if (pos >= length) return -1;
+        int n = (int) Math.min(buf.length, length - pos);
+        int done = 0;
+        while (done < n) {
+            long block = pos / BLOCKSIZE;
+            int len = (int) Math.min(n - done, (block + 1) * BLOCKSIZE - pos);
+            if (dirty.get((int) block)) {
+                overlay.seek(pos);
+                overlay.readFully(buf, done, len);
+            } else {
+                readBase(pos, buf, done, len);
+            }
+            pos += len;
+            done += len;
+        }
+        return n;
+    }
+
+    @Override
+    public void write(byte[] buf) throws IOException {
+        if (buf.length == 0) return;
+        ensureOverlay();
+        long end = pos + buf.length;
+        for (long block = pos / BLOCKSIZE; block <= (end - 1) / BLOCKSIZE; block++) {
+            if (dirty.get((int) block)) continue;
+            long blockStart = block * BLOCKSIZE;
+            long blockEnd = Math.min((block + 1) * BLOCKSIZE, Math.max(length, end));
+            if (pos <= blockStart && end >= blockEnd) {
+                dirty.set((int) block);  // overwritten entirely, nothing to copy
+            } else {
+                materializeBlock(block);
+            }
+        }
+        overlay.seek(pos);
+        overlay.write(buf);
+        addExtent(pos, end);
+        pos = end;
+        length = Math.max(length, end);
+    }
+
+    /**
+     * addExtent: record a written range, merged with the ranges it overlaps or touches
+     * @param start      start offset
+     * @param end        end offset (exclusive)
+     */
+    private void addExtent(long start, long end) {
+        Map.Entry<Long, Long> prev = extents.floorEntry(start);
+        if (prev != null && prev.getValue() >= start) {
+            start = prev.getKey();
+            end = Math.max(end, prev.getValue());
+            extents.remove(prev.getKey());
+        }
+        Map.Entry<Long, Long> next;
+        while ((next = extents.ceilingEntry(start)) != null && next.getKey() <= end) {
+            end = Math.max(end, next.getValue());
+            extents.remove(next.getKey());
+        }
+        extents.put(start, end);
+    }
+
+    /**
+     * dirtyExtents: the ranges written through this file, in offset order
+     * @return list of {start, end} pairs
+     */
+    public List<long[]> dirtyExtents() {
+        List<long[]> list = new ArrayList<>();
+        for (Map.Entry<Long, Long> e : extents.entrySet()) {
+            list.add(new long[] {e.getKey(), e.getValue()});
+        }
+        return list;
+    }
+
+    /**
+     * dirtyBytes: total length of the ranges written through this file
+     * @return bytes
+     */
+    public long dirtyBytes() {
+        long bytes = 0;
+        for (Map.Entry<Long, Long> e : extents.entrySet()) {
+            bytes += e.getValue() - e.getKey();
+        }
+        return bytes;
+    }
+
+    @Override
+    public long growth(long len) throws IOException {
+        if (len <= 0) return 0;
+        long end = pos + len;
+        long fileEnd = Math.max(length, end);
+        long bytes = 0;
+        for (long block = pos / BLOCKSIZE; block <= (end - 1) / BLOCKSIZE; block++) {
+            // a block first touched is copied in, but only as far as the file goes
+            if (!dirty.get((int) block)) bytes += Math.min(BLOCKSIZE, fileEnd - block * BLOCKSIZE);
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getFilePointer() {
+        return pos;
+    }
+
+    @Override
+    public void seek(long pos) {
+        this.pos = pos;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /**
+     * isModified: whether any byte was written through this file
+     * @return true, if written
+     */
+    public boolean isModified() {
+        return !extents.isEmpty() || length != baseLen;
+    }
+
+    /**
+     * commit: make the overlay file hold the whole new version.
+     * An unmodified file is hard linked to the committed version when it is still
+     * the one opened; otherwise each run of untouched blocks is copied in with one
+     * channel transfer, which the kernel does without going through the heap.
+     * Untouched blocks past the end of the committed version stay holes (zeros).
+     * @throws IOException
+     */
+    public void commit() throws IOException {
+        if (!isModified() && base != null && linkBase()) {
+            return;
+        }
+        ensureOverlay();
+        long blocks = (Math.min(length, baseLen) + BLOCKSIZE - 1) / BLOCKSIZE;
+        int block = dirty.nextClearBit(0);
+        while (block < blocks) {
+            int next = dirty.nextSetBit(block);
+            if (next < 0 || next > blocks) next = (int) blocks;
+            long start = (long) block * BLOCKSIZE;
+            transferBase(start, Math.min((long) next * BLOCKSIZE, baseLen) - start);
+            block = dirty.nextClearBit(next);
+        }
+        overlay.setLength(length);
+    }
+
+    /**
+     * transferBase: copy a range of the committed version to the same offset in the overlay
+     * @param start      byte offset in the file
+     * @param len        length to copy, within the committed version
+     * @throws IOException
+     */
+    private void transferBase(long start, long len) throws IOException {
+        FileChannel in = base.getChannel();
+        FileChannel out = overlay.getChannel();
+        out.position(start);
+        long done = 0;
+        while (done < len) {
+            long n = in.transferTo(start + done, len - done, out);
+            if (n <= 0) throw new EOFException(basePath + " shrank while committing " + overlayPath);
+            done += n;
+        }
+    }
+
+    /**
+     * linkBase: hard link the overlay path to the committed version
+     * @return true, if linked
+     */
+    private boolean linkBase() {
+        try {
+            Path basePath = Paths.get(this.basePath);
+            Object key = Files.readAttributes(basePath, BasicFileAttributes.class).fileKey();
+            if (key == null || !key.equals(baseKey)) return false;
+            if (overlay != null) {
+                overlay.close();
+                overlay = null;
+            }
+            Path overlayPath = Paths.get(this.overlayPath);
+            Files.deleteIfExists(overlayPath);
+            Files.createLink(overlayPath, basePath);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (base != null) base.close();
+        if (overlay != null) overlay.close();
+    }
+}
@@ -0,0 +1,20 @@
+/**
+ * Delta.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.Serializable;
+
+/**
+ * Delta: recipe rebuilding a new version from the blocks of a base version.
+ * An op >= 0 copies that base block; an op < 0 takes the next -op literal bytes.
+ */
+public class Delta implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    public int blockSize;     // block size of the base signatures
+    public long length;       // length of the new version
+    public int[] ops;         // copy and literal ops, in order
+    public byte[] literals;   // literal bytes of all literal ops, in order
+}
@@ -0,0 +1,31 @@
+/**
+ * Fetch.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.Serializable;
+
+/**
+ * Fetch: the answer to a conditional fetch. If the version the proxy holds is still
+ * the latest, only that is said; otherwise the latest version, the file length
+ * and the first chunk come in the same reply.
+ */
+public class Fetch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    public boolean modified;  // false if the proxy's version is the latest
+    public boolean leased;    // true if a read lease of the path was granted
+    public long version;      // latest version, < 0 if failed
+    public long length;       // file length, Integer.MIN_VALUE for a directory, < 0 if open failed
+    public Chunk chunk;       // chunk at offset 0, null if not modified, too large to cache,
+                              // or larger than one chunk while the proxy holds a stale version
+
+    /**
+     * Fetch constructor
+     * @param version        latest version
+     */
+    public Fetch(long version) {
+        this.version = version;
+    }
+}
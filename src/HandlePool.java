@@ -0,0 +1,217 @@
+/**
+ * HandlePool.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * HandlePool: open file channels of the server storage, shared by all requests.
+ * Channels are keyed by canonical path and used only with positional reads and
+ * writes, so concurrent requests on one file need no seek and no lock. The pool
+ * keeps at most maxHandles idle or busy channels, closing the least recently used
+ * idle one beyond that. A channel is reference counted: when its file is unlinked
+ * or replaced, it is invalidated, and closed once its last user releases it.
+ */
+public class HandlePool {
+
+    /**
+     * Handle: a shared channel of one file
+     */
+    public static class Handle {
+        final String key;
+        final FileChannel channel;
+        int refCnt;
+        boolean invalid;
+
+        Handle(String key, FileChannel channel) {
+            this.key = key;
+            this.channel = channel;
+        }
+
+        /**
+         * read: read a range of the file, as much of it as exists
+         * @param buf        destination buffer
+         * @param off        offset in the buffer
+         * @param len        bytes to read
+         * @param position   byte offset in the file
+         * @return bytes read, -1 if the position is at or past the end
+         * @throws IOException
+         */
+        public int read(byte[] buf, int off, int len, long position) throws IOException {
+            ByteBuffer bb = ByteBuffer.wrap(buf, off, len);
+            int done = 0;
+            while (bb.hasRemaining()) {
+                int n = channel.read(bb, position + done);
+                if (n < 0) break;
+                done += n;
+            }
+            return (done == 0 && len > 0) ? -1 : done;
+        }
+
+        /**
+         * write: write a range of the file
+         * @param buf        source buffer
+         * @param off        offset in the buffer
+         * @param len        bytes to write
+         * @param position   byte offset in the file
+         * @throws IOException
+         */
+        public void write(byte[] buf, int off, int len, long position) throws IOException {
+            ByteBuffer bb = ByteBuffer.wrap(buf, off, len);
+            while (bb.hasRemaining()) {
+                channel.write(bb, position + len - bb.remaining());
+            }
+        }
+    }
+
+    private int maxHandles;
+
+    /* bumped by every invalidation, so a channel opened across one is not pooled */
+    private long generation;
+
+    /* map contains canonical path as key, its Handle as value, from the least used */
+    private LinkedHashMap<String, Handle> handleMap = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * HandlePool constructor
+     * @param maxHandles     max open channels kept
+     */
+    public HandlePool(int maxHandles) {
+        this.maxHandles = maxHandles;
+    }
+
+    /**
+     * key: key of a file in the pool
+     * @param file           file in server storage
+     * @return canonical path
+     * @throws IOException
+     */
+    private static String key(File file) throws IOException {
+        return file.getCanonicalPath();
+    }
+
+    /**
+     * acquire: get the shared channel of a file, opening it if needed
+     * @param file           existing regular file in server storage
+     * @return handle, to be released after use
+     * @throws IOException if the file cannot be opened
+     */
+    public Handle acquire(File file) throws IOException {
+        String key = key(file);
+        while (true) {
+            long start;
+            synchronized (this) {
+                Handle handle = handleMap.get(key);
+                if (handle != null) {
+                    handle.refCnt++;
+                    return handle;
+                }
+                start = generation;
+            }
+            Handle handle = open(file, key, start);
+            if (handle != null) return handle;
+            // the file may have been replaced or unlinked while it was opened: open again
+        }
+    }
+
+    /**
+     * open: open a channel outside the lock and pool it, unless an invalidation came
+     * in meanwhile; the channel might then be of the file replaced or unlinked
+     * @param file           file in server storage
+     * @param key            key of the file
+     * @param start          generation before the open
+     * @return handle, null if an invalidation raced the open
+     * @throws IOException if the file cannot be opened
+     */
+    private Handle open(File file, String key, long start) throws IOException {
+        // a racing open of the same file is closed below
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        List<Handle> idle = new ArrayList<>();
+        Handle handle;
+        synchronized (this) {
+            if (generation != start) {
+                handle = null;
+            } else if ((handle = handleMap.get(key)) == null) {
+                handle = new Handle(key, channel);
+                handleMap.put(key, handle);
+                channel = null;
+                Iterator<Handle> it = handleMap.values().iterator();
+                while (handleMap.size() > maxHandles && it.hasNext()) {
+                    Handle old = it.next();
+                    if (old.refCnt == 0 && old != handle) {
+                        it.remove();
+                        idle.add(old);
+                    }
+                }
+            }
+            if (handle != null) handle.refCnt++;
+        }
+        if (channel != null) channel.close();
+        for (Handle old : idle) {
+            old.channel.close();
+        }
+        return handle;
+    }
+
+    /**
+     * retain: take one more reference to a handle already held
+     * @param handle         handle
+     */
+    public synchronized void retain(Handle handle) {
+        handle.refCnt++;
+    }
+
+    /**
+     * release: give back a handle got from acquire
+     * @param handle         handle, may be null
+     */
+    public void release(Handle handle) {
+        if (handle == null) return;
+        synchronized (this) {
+            handle.refCnt--;
+            if (!handle.invalid || handle.refCnt > 0) return;
+        }
+        close(handle);
+    }
+
+    /**
+     * invalidate: drop the channel of a file that has been unlinked or replaced, so
+     * later requests open the file now at the path
+     * @param file           file in server storage
+     */
+    public void invalidate(File file) {
+        Handle handle;
+        try {
+            String key = key(file);
+            synchronized (this) {
+                generation++;
+                handle = handleMap.remove(key);
+                if (handle == null) return;
+                handle.invalid = true;
+                if (handle.refCnt > 0) return;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        close(handle);
+    }
+
+    /**
+     * close: close the channel of a handle
+     * @param handle         handle no longer in use
+     */
+    private static void close(Handle handle) {
+        try {
+            handle.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * LatencyServer.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * LatencyServer: stand-in for a slow link, delays every call to the server by a
+ * fixed round-trip time. Used to measure the proxy on a local server.
+ */
+public class LatencyServer implements InvocationHandler {
+
+    private ServerInf server;
+    private long rttMillis;
+
+    private LatencyServer(ServerInf server, long rttMillis) {
+        this.server = server;
+        this.rttMillis = rttMillis;
+    }
+
+    /**
+     * wrap: add a round-trip time to every call of a server
+     * @param server         server stub
+     * @param rttMillis      round-trip time in milliseconds
+     * @return server stub with latency
+     */
+    public static ServerInf wrap(ServerInf server, long rttMillis) {
+        return (ServerInf) java.lang.reflect.Proxy.newProxyInstance(ServerInf.class.getClassLoader(),
+                new Class<?>[] {ServerInf.class}, new LatencyServer(server, rttMillis));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        Thread.sleep(rttMillis);
+        try {
+            return method.invoke(server, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
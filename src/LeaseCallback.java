@@ -0,0 +1,14 @@
+/**
+ * LeaseCallback.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.rmi.*;
+
+public interface LeaseCallback extends Remote {
+
+    // revoke: drop the read lease of a path, as another proxy has changed it
+    public void revoke(String path) throws RemoteException;
+
+}
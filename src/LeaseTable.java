@@ -0,0 +1,126 @@
+/**
+ * LeaseTable.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LeaseTable: the read leases a proxy holds, and the callback the server revokes
+ * them through. A lease covers one cached version of a path. Its term is counted
+ * from before the request that got it was sent, so it always ends before the
+ * server's. A revocation that overtakes the reply granting a lease cancels it.
+ * A revocation is remembered for one term only, since a lease granted later than
+ * that to a request sent before it has already ended. Ended leases and revocations
+ * are swept out at most once per term, so the table holds only the paths leased
+ * or revoked lately.
+ */
+public class LeaseTable extends UnicastRemoteObject implements LeaseCallback {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Lease: a lease on one version, or the time of a revocation if version < 0
+     */
+    private static class Lease {
+        final long version;
+        final long expiry;     // System.nanoTime() at which the lease ends
+        final long revoked;    // System.nanoTime() of the revocation
+
+        Lease(long version, long expiry, long revoked) {
+            this.version = version;
+            this.expiry = expiry;
+            this.revoked = revoked;
+        }
+    }
+
+    /* lease term in nanoseconds */
+    private final long term;
+
+    /* map contains path as key, its Lease as value */
+    private ConcurrentHashMap<String, Lease> leaseMap = new ConcurrentHashMap<>();
+
+    /* System.nanoTime() of the last sweep */
+    private long swept = System.nanoTime();
+
+    /* opens served under a lease, leases granted and revoked */
+    public AtomicLong hitCnt = new AtomicLong();
+    public AtomicLong grantCnt = new AtomicLong();
+    public AtomicLong revokeCnt = new AtomicLong();
+
+    /**
+     * LeaseTable constructor
+     * @param termMillis     lease term in milliseconds
+     * @throws RemoteException
+     */
+    public LeaseTable(long termMillis) throws RemoteException {
+        this.term = termMillis * 1000000;
+    }
+
+    /**
+     * valid: whether a cached version of a path is leased
+     * @param path           original path
+     * @param version        cached version
+     * @return true, if it can be served without asking the server
+     */
+    public boolean valid(String path, long version) {
+        Lease lease = leaseMap.get(path);
+        if (lease == null || lease.version != version || System.nanoTime() - lease.expiry >= 0) {
+            return false;
+        }
+        hitCnt.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * grant: record a lease the server granted
+     * @param path           original path
+     * @param version        version leased
+     * @param start          System.nanoTime() before the request was sent
+     */
+    public synchronized void grant(String path, long version, long start) {
+        Lease lease = leaseMap.get(path);
+        if (lease != null && lease.version < 0 && lease.revoked - start >= 0) {
+            return;  // revoked since the request was sent
+        }
+        leaseMap.put(path, new Lease(version, start + term, 0));
+        grantCnt.incrementAndGet();
+        sweep();
+    }
+
+    @Override
+    public synchronized void revoke(String path) throws RemoteException {
+        leaseMap.put(path, new Lease(-1, 0, System.nanoTime()));
+        revokeCnt.incrementAndGet();
+        sweep();
+    }
+
+    /**
+     * sweep: drop the leases that have ended and the revocations older than a term,
+     * once a term has passed since the last sweep. Called under the table's lock.
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        if (now - swept < term) return;
+        swept = now;
+        for (Map.Entry<String, Lease> e : leaseMap.entrySet()) {
+            Lease lease = e.getValue();
+            boolean over = lease.version < 0 ? now - lease.revoked >= term : now - lease.expiry >= 0;
+            if (over) leaseMap.remove(e.getKey(), lease);
+        }
+    }
+
+    /**
+     * stats: lease counters
+     * @return a one-line summary
+     */
+    public String stats() {
+        return String.format("leaseHits=%d leasesGranted=%d leasesRevoked=%d",
+                hitCnt.get(), grantCnt.get(), revokeCnt.get());
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Leases.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Leases: time-bounded read leases the server grants per path to proxies.
+ * While a proxy holds the lease of a path it serves opens of its cached version
+ * without asking the server. A change to the path revokes the unexpired leases
+ * through the holders' callbacks before the changing call returns. The callbacks run
+ * in parallel, and the change waits for each only until that holder's lease expires:
+ * a holder that cannot be reached costs the writer at most one term. A lease is granted before
+ * the version it covers is read, so a change can never slip in between unrevoked.
+ */
+public class Leases {
+
+    /* lease term in milliseconds */
+    public final long term;
+
+    /* map contains path as key, holders with their expiry time as value */
+    private HashMap<String, HashMap<LeaseCallback, Long>> holderMap = new HashMap<>();
+
+    /* threads sending revocations, so holders are called in parallel */
+    private static ExecutorService revokePool = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "lease-revoker");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /* number of paths at which expired leases are swept */
+    private int sweepAt = 1024;
+
+    /**
+     * Leases constructor
+     * @param term           lease term in milliseconds
+     */
+    public Leases(long term) {
+        this.term = term;
+    }
+
+    /**
+     * grant: grant or renew the lease of a path
+     * @param path           original path
+     * @param holder         callback of the proxy
+     */
+    public synchronized void grant(String path, LeaseCallback holder) {
+        if (holder == null) return;
+        long now = System.currentTimeMillis();
+        HashMap<LeaseCallback, Long> holders = holderMap.get(path);
+        if (holders == null) {
+            if (holderMap.size() >= sweepAt) sweep(now);
+            holders = new HashMap<>();
+            holderMap.put(path, holders);
+        }
+        Iterator<Long> it = holders.values().iterator();
+        while (it.hasNext()) {
+            if (it.next() <= now) it.remove();
+        }
+        holders.put(holder, now + term);
+    }
+
+    /**
+     * sweep: drop the paths whose leases have all expired
+     * @param now            current time in milliseconds
+     */
+    private void sweep(long now) {
+        Iterator<HashMap<LeaseCallback, Long>> it = holderMap.values().iterator();
+        while (it.hasNext()) {
+            boolean live = false;
+            for (long expiry : it.next().values()) {
+                if (expiry > now) live = true;
+            }
+            if (!live) it.remove();
+        }
+        sweepAt = Math.max(1024, 2 * holderMap.size());
+    }
+
+    /**
+     * revoke: revoke the unexpired leases of a path
+     * @param path           original path
+     */
+    public void revoke(final String path) {
+        HashMap<LeaseCallback, Long> live = new HashMap<>();
+        synchronized (this) {
+            HashMap<LeaseCallback, Long> holders = holderMap.remove(path);
+            if (holders == null) return;
+            long now = System.currentTimeMillis();
+            for (Map.Entry<LeaseCallback, Long> e : holders.entrySet()) {
+                if (e.getValue() > now) live.put(e.getKey(), e.getValue());
+            }
+        }
+        HashMap<Future<?>, Long> sent = new HashMap<>();
+        for (final LeaseCallback holder : live.keySet()) {
+            Future<?> f = revokePool.submit(new Callable<Void>() {
+                public Void call() throws RemoteException {
+                    holder.revoke(path);
+                    return null;
+                }
+            });
+            sent.put(f, live.get(holder));
+        }
+        boolean interrupted = false;
+        for (Map.Entry<Future<?>, Long> e : sent.entrySet()) {
+            while (true) {
+                long wait = e.getValue() - System.currentTimeMillis();
+                try {
+                    if (wait > 0) e.getKey().get(wait, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException | ExecutionException ex) {
+                    // unreachable; its lease has run out by now
+                } catch (InterruptedException ex) {
+                    // the change must not return before the lease is revoked or expired
+                    interrupted = true;
+                    continue;
+                }
+                break;
+            }
+            e.getKey().cancel(true);
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * LfuPolicy.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.util.*;
+
+/**
+ * LfuPolicy: evict the least frequently used file, ties broken by recency.
+ * Files are kept in one LruList per reference count, so a re-reference is O(log F)
+ * where F is the number of distinct counts.
+ */
+public class LfuPolicy implements Cache.EvictionPolicy {
+
+    /* map contains reference count as key, files with that count as value */
+    private TreeMap<Integer, LruList> freqLists = new TreeMap<>();
+
+    /* map contains path as key, its reference count as value (kept until the file is evicted or forgotten) */
+    private HashMap<String, Integer> pathFreqMap = new HashMap<>();
+
+    private int size;
+    private long bytes;
+
+    @Override
+    public String name() {
+        return "lfu";
+    }
+
+    @Override
+    public void add(CacheFile caFile) {
+        remove(caFile);
+        Integer freq = pathFreqMap.get(caFile.path);
+        freq = (freq == null) ? 1 : freq + 1;
+        pathFreqMap.put(caFile.path, freq);
+        LruList list = freqLists.get(freq);
+        if (list == null) {
+            list = new LruList();
+            freqLists.put(freq, list);
+        }
+        list.addFirst(caFile);
+        size++;
+        bytes += caFile.lruSize;
+    }
+
+    @Override
+    public boolean remove(CacheFile caFile) {
+        if (caFile == null || caFile.lruOwner == null) return false;
+        Integer freq = pathFreqMap.get(caFile.path);
+        LruList list = freq == null ? null : freqLists.get(freq);
+        if (list == null) return false;
+        long linkedSize = caFile.lruSize;
+        if (!list.remove(caFile)) return false;
+        if (list.size() == 0) {
+            freqLists.remove(freq);
+        }
+        size--;
+        bytes -= linkedSize;
+        return true;
+    }
+
+    @Override
+    public CacheFile victim() {
+        if (freqLists.isEmpty()) return null;
+        Map.Entry<Integer, LruList> lowest = freqLists.firstEntry();
+        CacheFile last = lowest.getValue().peekLast();
+        remove(last);
+        pathFreqMap.remove(last.path);
+        return last;
+    }
+
+    @Override
+    public void forget(String path) {
+        pathFreqMap.remove(path);
+    }
+
+    @Override
+    public int tracked() {
+        return pathFreqMap.size();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long bytes() {
+        return bytes;
+    }
+}
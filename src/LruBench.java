@@ -0,0 +1,76 @@
+/**
+ * LruBench.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.rmi.Naming;
+import java.rmi.registry.LocateRegistry;
+import java.util.Random;
+
+/**
+ * LruBench: open/close latency of cached files as the number of cached files
+ * grows, through a proxy client in this process and one shard. The server grants
+ * long leases, so the opens measured are served from the cache without the server
+ * and cost only the cache's own bookkeeping (the recency list of the eviction
+ * policy among it), which should stay flat as the entries double.
+ *
+ * java LruBench [port] [maxEntries] [ops]
+ */
+public class LruBench {
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 15460;
+        int maxEntries = args.length > 1 ? Integer.parseInt(args[1]) : 16000;
+        int ops = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+        File dir = File.createTempFile("lru-bench", "");
+        dir.delete();
+        File serverDir = new File(dir, "server");
+        File cacheDir = new File(dir, "cache");
+        serverDir.mkdirs();
+        cacheDir.mkdirs();
+        for (int i = 0; i < maxEntries; i++) {
+            try (FileOutputStream out = new FileOutputStream(new File(serverDir, "f" + i))) {
+                out.write(new byte[64]);
+            }
+        }
+
+        Server server = new Server(serverDir.getAbsolutePath());
+        server.leases = new Leases(3600 * 1000);
+        LocateRegistry.createRegistry(port);
+        Naming.rebind("//127.0.0.1:" + port + "/Server", server);
+        FileHandling client = Proxy.newClient(new String[] {"127.0.0.1", "" + port,
+                cacheDir.getAbsolutePath(), "" + (1L << 30), "shards=1", "journal=false"});
+
+        Random random = new Random(1);
+        int cached = 0;
+        for (int entries = 1000; entries <= maxEntries; entries *= 2) {
+            // fill the cache up to this step
+            for (; cached < entries; cached++) {
+                client.close(client.open("f" + cached, FileHandling.OpenOption.READ));
+            }
+            // warm up, then time opens and closes of random cached files
+            for (int i = 0; i < ops / 4; i++) {
+                client.close(client.open("f" + random.nextInt(entries), FileHandling.OpenOption.READ));
+            }
+            long openNanos = 0;
+            long closeNanos = 0;
+            for (int i = 0; i < ops; i++) {
+                String path = "f" + random.nextInt(entries);
+                long start = System.nanoTime();
+                int fd = client.open(path, FileHandling.OpenOption.READ);
+                long opened = System.nanoTime();
+                client.close(fd);
+                closeNanos += System.nanoTime() - opened;
+                openNanos += opened - start;
+                if (fd < 0) throw new IllegalStateException("open " + path + ": " + fd);
+            }
+            System.out.printf("entries=%d ops=%d openUs=%.2f closeUs=%.2f%n",
+                    entries, ops, openNanos / 1e3 / ops, closeNanos / 1e3 / ops);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * LruList.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+/**
+ * LruList: an intrusive doubly-linked recency list threaded through CacheFile.
+ * Every operation is O(1); the list also keeps the total bytes of its nodes so
+ * that eviction can decide whether enough space is reclaimable without a scan.
+ */
+public class LruList {
+
+    private CacheFile head;   // the latest used
+    private CacheFile tail;   // the least used
+    private int size;
+    private long bytes;
+
+    /**
+     * contains: whether the CacheFile object is linked in this list
+     * @param caFile       CacheFile object
+     * @return true, if in the list; false, if not
+     */
+    public boolean contains(CacheFile caFile) {
+        return caFile != null && caFile.lruOwner == this;
+    }
+
+    /**
+     * addFirst: link a CacheFile object as the latest used node.
+     * If it is already in the list, it is moved to the head.
+     * @param caFile       CacheFile object
+     */
+    public void addFirst(CacheFile caFile) {
+        if (contains(caFile)) {
+            remove(caFile);
+        }
+        caFile.lruOwner = this;
+        caFile.lruSize = caFile.fileSize;
+        caFile.lruPrev = null;
+        caFile.lruNext = head;
+        if (head != null) {
+            head.lruPrev = caFile;
+        }
+        head = caFile;
+        if (tail == null) {
+            tail = caFile;
+        }
+        size++;
+        bytes += caFile.lruSize;
+    }
+
+    /**
+     * remove: unlink a CacheFile object from the list
+     * @param caFile       CacheFile object
+     * @return true, if it was in the list; false, if not
+     */
+    public boolean remove(CacheFile caFile) {
+        if (!contains(caFile)) return false;
+        if (caFile.lruPrev != null) {
+            caFile.lruPrev.lruNext = caFile.lruNext;
+        } else {
+            head = caFile.lruNext;
+        }
+        if (caFile.lruNext != null) {
+            caFile.lruNext.lruPrev = caFile.lruPrev;
+        } else {
+            tail = caFile.lruPrev;
+        }
+        caFile.lruPrev = null;
+        caFile.lruNext = null;
+        caFile.lruOwner = null;
+        size--;
+        bytes -= caFile.lruSize;
+        return true;
+    }
+
+    /**
+     * removeLast: unlink the least used CacheFile object
+     * @return the removed CacheFile object, null if the list is empty
+     */
+    public CacheFile removeLast() {
+        CacheFile last = tail;
+        if (last != null) {
+            remove(last);
+        }
+        return last;
+    }
+
+    /**
+     * peekLast: get the least used CacheFile object without unlinking it
+     * @return CacheFile object, null if the list is empty
+     */
+    public CacheFile peekLast() {
+        return tail;
+    }
+
+    /**
+     * size: number of nodes in the list
+     * @return node count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * bytes: total file size of all the nodes in the list
+     * @return bytes
+     */
+    public long bytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * LruPolicy.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+/**
+ * LruPolicy: evict the least recently used file (the original behavior).
+ */
+public class LruPolicy implements Cache.EvictionPolicy {
+
+    private LruList lruList = new LruList();  // ranked from the lastest used to the least used
+
+    @Override
+    public String name() {
+        return "lru";
+    }
+
+    @Override
+    public void add(CacheFile caFile) {
+        lruList.addFirst(caFile);
+    }
+
+    @Override
+    public boolean remove(CacheFile caFile) {
+        return lruList.remove(caFile);
+    }
+
+    @Override
+    public CacheFile victim() {
+        return lruList.removeLast();
+    }
+
+    @Override
+    public void forget(String path) {
+        // nothing is kept beyond the list
+    }
+
+    @Override
+    public int tracked() {
+        return lruList.size();
+    }
+
+    @Override
+    public int size() {
+        return lruList.size();
+    }
+
+    @Override
+    public long bytes() {
+        return lruList.bytes();
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * MappedFile.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedFile: a read-only OpenFile over a mapping shared by every file descriptor
+ * reading the same cached version. Each file descriptor only keeps its own position.
+ * The mapping is dropped when the read count of the version reaches zero, and the
+ * JVM unmaps it once no file descriptor refers to it any more.
+ */
+public class MappedFile implements OpenFile {
+
+    private ByteBuffer view;
+    private long pos;
+
+    /**
+     * MappedFile constructor
+     * @param mapped         the shared mapping
+     */
+    private MappedFile(MappedByteBuffer mapped) {
+        view = mapped.duplicate();
+    }
+
+    /**
+     * share: open a read-only cached version through its shared mapping,
+     * mapping it on first use.
+     * @param caFile         read-only CacheFile object
+     * @return MappedFile, or null if the file cannot be mapped
+     * @throws IOException
+     */
+    public static MappedFile share(CacheFile caFile) throws IOException {
+        synchronized (caFile) {
+            if (caFile.mapped == null) {
+                RandomAccessFile raf = new RandomAccessFile(caFile.realPath, "r");
+                try {
+                    if (raf.length() > Integer.MAX_VALUE) return null;
+                    caFile.mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                } finally {
+                    raf.close();
+                }
+            }
+            return new MappedFile(caFile.mapped);
+        }
+    }
+
+    @Override
+    public int read(byte[] buf) {
+        int len = view.limit();
+        if (pos >= len) return -1;
+        int n = (int) Math.min(buf.length, len - pos);
+        view.position((int) pos);
+        view.get(buf, 0, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public void write(byte[] buf) throws IOException {
+        throw new IOException("read-only mapping");
+    }
+
+    @Override
+    public long growth(long len) {
+        return 0;
+    }
+
+    @Override
+    public long getFilePointer() {
+        return pos;
+    }
+
+    @Override
+    public void seek(long pos) {
+        this.pos = pos;
+    }
+
+    @Override
+    public long length() {
+        return view.limit();
+    }
+
+    @Override
+    public void close() {
+        view = null;
+    }
+}
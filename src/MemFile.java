@@ -0,0 +1,109 @@
+/**
+ * MemFile.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * MemFile: an OpenFile served by the memory tier.
+ * Readers share the read-only buffer of the cached version; a writer works on a
+ * private heap copy that is uploaded at close.
+ */
+public class MemFile implements OpenFile {
+
+    private ByteBuffer view;    // shared version, for readers
+    private byte[] content;     // private copy, for writers
+    private int length;
+    private long pos;
+    private boolean modified;
+
+    /**
+     * MemFile constructor
+     * @param data           cached version
+     * @param writable       whether to make a private copy for writing
+     */
+    public MemFile(ByteBuffer data, boolean writable) {
+        if (writable) {
+            content = new byte[data.capacity()];
+            data.duplicate().get(content);
+            length = content.length;
+        } else {
+            view = data.duplicate();
+            length = data.capacity();
+        }
+    }
+
+    @Override
+    public int read(byte[] buf) {
+        if (pos >= length) return -1;
+        int n = (int) Math.min(buf.length, length - pos);
+        if (view != null) {
+            view.position((int) pos);
+            view.get(buf, 0, n);
+        } else {
+            System.arraycopy(content, (int) pos, buf, 0, n);
+        }
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public void write(byte[] buf) throws IOException {
+        if (content == null) throw new IOException("read-only file");
+        long end = pos + buf.length;
+        if (end > Integer.MAX_VALUE) throw new IOException("file too large for memory");
+        if (end > content.length) {
+            content = Arrays.copyOf(content, (int) Math.max(end, 2L * content.length));
+        }
+        System.arraycopy(buf, 0, content, (int) pos, buf.length);
+        pos = end;
+        length = (int) Math.max(length, end);
+        modified = true;
+    }
+
+    @Override
+    public long growth(long len) {
+        return 0;
+    }
+
+    @Override
+    public long getFilePointer() {
+        return pos;
+    }
+
+    @Override
+    public void seek(long pos) {
+        this.pos = pos;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /**
+     * isModified: whether any byte was written through this file
+     * @return true, if written
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * content: the bytes of a writable file
+     * @return buffer holding length() bytes
+     */
+    public byte[] content() {
+        return content;
+    }
+
+    @Override
+    public void close() {
+        view = null;
+        content = null;
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * MemoryTier.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MemoryTier: an in-memory tier in front of the cache directory for small files.
+ * Each cached version is held in an off-heap buffer that is never modified, so file
+ * descriptors reading it share the buffer. Versions are ranked by lru within their own
+ * byte budget; the least recently used ones are handed back to be demoted to disk.
+ * A small file cached on disk is promoted after promoteHits up-to-date opens.
+ */
+public class MemoryTier {
+
+    /**
+     * Entry: one cached version of a path
+     */
+    public static class Entry {
+        public final String path;
+        public final long version;
+        public final ByteBuffer data;
+
+        Entry(String path, long version, ByteBuffer data) {
+            this.path = path;
+            this.version = version;
+            this.data = data;
+        }
+    }
+
+    /* files of at most this size are kept in memory */
+    public final long threshold;
+
+    private long budget;
+    private long used;
+    private int promoteHits;
+
+    /* map contains path as key, its Entry as value, ranked from the least used */
+    private LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /* map contains path as key, up-to-date opens served by the disk tier as value */
+    private LinkedHashMap<String, Integer> diskHitMap = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > 4096;
+        }
+    };
+
+    public AtomicLong hitCnt = new AtomicLong();
+    public AtomicLong promoteCnt = new AtomicLong();
+    public AtomicLong demoteCnt = new AtomicLong();
+
+    /**
+     * MemoryTier constructor
+     * @param budget         memory limit in bytes
+     * @param threshold      max size of a file kept in memory
+     * @param promoteHits    disk hits before a small file is promoted
+     */
+    public MemoryTier(long budget, long threshold, int promoteHits) {
+        this.budget = budget;
+        this.threshold = Math.min(threshold, budget);
+        this.promoteHits = promoteHits;
+    }
+
+    /**
+     * get: get the cached version of a path if it is up-to-date
+     * @param path       original path
+     * @param version    the latest version on server
+     * @return Entry object, null if absent or stale
+     */
+    public synchronized Entry get(String path, long version) {
+        Entry e = entries.get(path);
+        if (e == null) return null;
+        if (e.version != version) {
+            remove(path);
+            return null;
+        }
+        hitCnt.incrementAndGet();
+        return e;
+    }
+
+    /**
+     * version: the version of a path kept in memory
+     * @param path       original path
+     * @return version, -1 if absent
+     */
+    public synchronized long version(String path) {
+        Entry e = entries.get(path);
+        return (e == null) ? -1 : e.version;
+    }
+
+    /**
+     * countDiskHit: count an up-to-date open of a small file served by the disk tier
+     * @param path       original path
+     * @return true, if the file should be promoted now
+     */
+    public synchronized boolean countDiskHit(String path) {
+        Integer hits = diskHitMap.get(path);
+        hits = (hits == null) ? 1 : hits + 1;
+        if (hits >= promoteHits) {
+            diskHitMap.remove(path);
+            return true;
+        }
+        diskHitMap.put(path, hits);
+        return false;
+    }
+
+    /**
+     * install: cache a version of a path in memory
+     * @param path       original path
+     * @param version    version of the content
+     * @param content    file content
+     * @param len        length of the content
+     * @param victims    filled with the entries pushed out to make room
+     * @return the new Entry, null if the content is too large
+     */
+    public Entry install(String path, long version, byte[] content, int len, List<Entry> victims) {
+        if (len > threshold) return null;
+        ByteBuffer data = ByteBuffer.allocateDirect(len);
+        data.put(content, 0, len);
+        data.flip();
+        Entry e = new Entry(path, version, data.asReadOnlyBuffer());
+        synchronized (this) {
+            remove(path);
+            entries.put(path, e);
+            used += len;
+            Iterator<Entry> it = entries.values().iterator();
+            while (used > budget && it.hasNext()) {
+                Entry victim = it.next();
+                it.remove();
+                used -= victim.data.capacity();
+                victims.add(victim);
+                demoteCnt.incrementAndGet();
+            }
+        }
+        return e;
+    }
+
+    /**
+     * remove: drop the cached version of a path
+     * @param path       original path
+     */
+    public synchronized void remove(String path) {
+        Entry e = entries.remove(path);
+        if (e != null) {
+            used -= e.data.capacity();
+        }
+    }
+
+    /**
+     * stats: counters of the memory tier
+     * @return a one-line summary
+     */
+    public synchronized String stats() {
+        return String.format("memUsed=%d memFiles=%d memHits=%d promotions=%d demotions=%d",
+                used, entries.size(), hitCnt.get(), promoteCnt.get(), demoteCnt.get());
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * MetaCache.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MetaCache: metadata of the paths of server storage kept in memory, so the
+ * metadata calls of proxies are answered without canonicalizing paths or stat-ing
+ * files. An entry holds whether the path stays inside the storage, exists, is a
+ * directory, its length and its version. The server drops the entry of a path it
+ * writes or unlinks; changes made outside the server are seen through a
+ * WatchService on every directory of the storage, a little after they happen.
+ * The version log and the staging directory are not paths of the storage.
+ * Paths reached through symbolic links are not cached, as the watch only sees
+ * their targets. Without a working watch nothing is cached.
+ */
+public class MetaCache {
+
+    /**
+     * Meta: metadata of one path
+     */
+    public static class Meta {
+        public boolean valid;     // inside the storage
+        public boolean exists;
+        public boolean isDir;
+        public long length;
+        public long version;      // 0 if it does not exist
+    }
+
+    private String serverPath;
+    private Path root;               // canonical storage directory
+    private Path logPath;            // canonical version log
+    private Path stagingPath;        // canonical staging directory
+    private VersionTable versions;
+    private volatile boolean enabled;
+    private WatchService watcher;
+
+    /* map contains normalized path relative to the storage as key, its Meta as value */
+    private ConcurrentHashMap<String, Meta> metaMap = new ConcurrentHashMap<>();
+
+    /* map contains watch key as key, the directory it watches as value */
+    private ConcurrentHashMap<WatchKey, Path> dirMap = new ConcurrentHashMap<>();
+
+    /* bumped by every invalidation, so a load racing one is not cached */
+    private AtomicLong epoch = new AtomicLong();
+
+    /* lookups served from memory, loaded from the file system, and invalidations */
+    public AtomicLong hitCnt = new AtomicLong();
+    public AtomicLong missCnt = new AtomicLong();
+    public AtomicLong invalidateCnt = new AtomicLong();
+
+    /**
+     * MetaCache constructor: start watching the storage
+     * @param serverPath     the server storage directory
+     * @param versions       version table of the storage
+     * @param staging        staging directory in the storage
+     */
+    public MetaCache(String serverPath, VersionTable versions, File staging) {
+        this.serverPath = serverPath;
+        this.versions = versions;
+        try {
+            root = new File(serverPath).getCanonicalFile().toPath();
+            logPath = versions.logFile().getCanonicalFile().toPath();
+            stagingPath = staging.getCanonicalFile().toPath();
+            watcher = FileSystems.getDefault().newWatchService();
+            register(root);
+            enabled = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            close();
+            return;
+        }
+        Thread thread = new Thread("metadata-watcher") {
+            public void run() {
+                watchLoop();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * get: metadata of a path
+     * @param path           original path
+     * @return metadata
+     */
+    public Meta get(String path) {
+        String key = enabled ? key(path) : null;
+        if (key != null) {
+            Meta meta = metaMap.get(key);
+            if (meta != null) {
+                hitCnt.incrementAndGet();
+                return meta;
+            }
+        }
+        missCnt.incrementAndGet();
+        long start = epoch.get();
+        File file = new File(serverPath + "/" + path);
+        Meta meta = new Meta();
+        boolean cacheable = false;
+        try {
+            Path canonical = file.getCanonicalFile().toPath();
+            meta.valid = canonical.startsWith(root) && !canonical.equals(logPath)
+                    && !canonical.startsWith(stagingPath);
+            cacheable = key != null && canonical.equals(root.resolve(key));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        BasicFileAttributes attrs = null;
+        try {
+            attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            // does not exist
+        }
+        if (attrs != null) {
+            meta.exists = true;
+            meta.isDir = attrs.isDirectory();
+            meta.length = attrs.size();
+        }
+        if (meta.valid) meta.version = versions.version(path, file, attrs);
+        if (cacheable && epoch.get() == start) {
+            metaMap.put(key, meta);
+            // an invalidation may have slipped in between
+            if (epoch.get() != start) metaMap.remove(key, meta);
+        }
+        return meta;
+    }
+
+    /**
+     * invalidate: drop the metadata of a path changed by the server
+     * @param path           original path
+     */
+    public void invalidate(String path) {
+        String key = key(path);
+        if (key == null) {
+            invalidateAll();
+        } else {
+            invalidateTree(key);
+        }
+    }
+
+    /**
+     * invalidateTree: drop the metadata of a path and of everything below it
+     * @param key            normalized relative path
+     */
+    private void invalidateTree(String key) {
+        epoch.incrementAndGet();
+        invalidateCnt.incrementAndGet();
+        metaMap.remove(key);
+        String prefix = key + "/";
+        Iterator<String> it = metaMap.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().startsWith(prefix)) it.remove();
+        }
+    }
+
+    private void invalidateAll() {
+        epoch.incrementAndGet();
+        invalidateCnt.incrementAndGet();
+        metaMap.clear();
+    }
+
+    /**
+     * key: normalized form of a path relative to the storage
+     * @param path           original path
+     * @return key, null if the path leaves the storage by its name alone
+     */
+    private static String key(String path) {
+        Path p = Paths.get(path).normalize();
+        if (p.isAbsolute() || p.startsWith("..")) return null;
+        return p.toString();
+    }
+
+    /**
+     * register: watch a directory and the directories below it
+     * @param dir            directory in the storage
+     * @throws IOException
+     */
+    private void register(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                // staging files come and go with every upload, and are never served
+                if (d.equals(stagingPath)) return FileVisitResult.SKIP_SUBTREE;
+                WatchKey key = d.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                dirMap.put(key, d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * watchLoop: drop the metadata of the paths changed outside the server (and of
+     * their directories, whose length changes with their entries)
+     */
+    private void watchLoop() {
+        while (enabled) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = dirMap.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                    invalidateAll();
+                    continue;
+                }
+                Path child = dir.resolve((Path) event.context());
+                String childKey = root.relativize(child).toString();
+                invalidateTree(childKey);
+                if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY) continue;
+                invalidateTree(root.relativize(dir).toString());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                    try {
+                        register(child);
+                    } catch (IOException e) {
+                        // gone again, or unwatchable: nothing of it can be cached safely
+                        close();
+                        return;
+                    }
+                    // loaded before the watch was in place
+                    invalidateTree(childKey);
+                }
+            }
+            if (!key.reset()) dirMap.remove(key);
+        }
+    }
+
+    /**
+     * close: stop watching and caching; every lookup loads from the file system
+     */
+    public void close() {
+        enabled = false;
+        invalidateAll();
+        try {
+            if (watcher != null) watcher.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * NioClient.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NioClient: proxy end of the NIO transport. All the threads of a proxy share
+ * one connection: a call is sent with a fresh request id and waits for the reply
+ * of that id, so many calls are in flight at once and replies may come back in
+ * any order. A reader thread hands replies to their calls and answers the
+ * server's lease revocations.
+ */
+public class NioClient implements InvocationHandler {
+
+    private SocketChannel channel;
+    private Object writeLock = new Object();
+    private AtomicLong nextId = new AtomicLong();
+    private ConcurrentHashMap<Long, Call> pending = new ConcurrentHashMap<>();
+    private volatile LeaseCallback holder;
+    private volatile IOException broken;
+
+    /**
+     * Call: a call waiting for its reply
+     */
+    private static class Call {
+        final CountDownLatch done = new CountDownLatch(1);
+        Object result;
+        String error;
+    }
+
+    private NioClient(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * connect: connect to a server started with transport=nio
+     * @param host           server host
+     * @param port           server port
+     * @return server stub
+     * @throws IOException if the server is unreachable
+     */
+    public static ServerInf connect(String host, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+        final NioClient client = new NioClient(channel);
+        Thread reader = new Thread("nio-client-reader") {
+            @Override
+            public void run() {
+                client.readLoop();
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+        return (ServerInf) java.lang.reflect.Proxy.newProxyInstance(ServerInf.class.getClassLoader(),
+                new Class<?>[] {ServerInf.class}, client);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            if (method.getName().equals("equals")) return proxy == args[0];
+            if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+            return "NioClient[" + channel.socket().getRemoteSocketAddress() + "]";
+        }
+        long id = nextId.incrementAndGet();
+        Call call = new Call();
+        pending.put(id, call);
+        try {
+            Wire.Frame frame = new Wire.Frame(id, Wire.CALL);
+            frame.out.writeShort(Wire.methodIndex(method));
+            if (args != null) {
+                for (Object arg : args) {
+                    if (arg instanceof LeaseCallback) holder = (LeaseCallback) arg;
+                    Wire.write(frame.out, arg);
+                }
+            }
+            if (broken != null) throw broken;
+            synchronized (writeLock) {
+                frame.send(channel, 0);
+            }
+            call.done.await();
+        } catch (IOException e) {
+            throw new RemoteException("nio call " + method.getName() + " failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("interrupted in nio call " + method.getName());
+        } finally {
+            pending.remove(id);
+        }
+        if (call.error != null) throw new RemoteException(call.error);
+        return call.result;
+    }
+
+    /**
+     * readLoop: hand replies to their calls and answer revocations until the
+     * connection closes, then fail the calls still waiting
+     */
+    private void readLoop() {
+        ByteBuffer header = ByteBuffer.allocate(Wire.HEADER);
+        try {
+            byte[] payload;
+            while ((payload = Wire.readFrame(channel, header)) != null) {
+                try {
+                    dispatch(header.getLong(4), header.get(12), Wire.payload(payload, header));
+                } finally {
+                    BufferPool.put(payload);
+                }
+            }
+            broken = new IOException("connection closed by server");
+        } catch (IOException e) {
+            broken = e;
+        }
+        for (Call call : pending.values()) {
+            call.error = "connection lost: " + broken.getMessage();
+            call.done.countDown();
+        }
+    }
+
+    /**
+     * dispatch: hand a frame from the server to its call, or answer a revocation
+     * @param id             request id
+     * @param kind           frame kind
+     * @param in             payload stream
+     * @throws IOException
+     */
+    private void dispatch(long id, byte kind, DataInputStream in) throws IOException {
+        if (kind == Wire.REVOKE) {
+            revoke(id, in.readUTF());
+            return;
+        }
+        Call call = pending.get(id);
+        if (call == null) return;
+        if (kind == Wire.REPLY) {
+            call.result = Wire.read(in, null);
+        } else {
+            call.error = in.readUTF();
+        }
+        call.done.countDown();
+    }
+
+    /**
+     * revoke: drop a lease the server revoked and acknowledge it
+     * @param id             revocation id
+     * @param path           original path
+     * @throws IOException
+     */
+    private void revoke(long id, String path) throws IOException {
+        LeaseCallback h = holder;
+        if (h != null) {
+            try {
+                h.revoke(path);
+            } catch (RemoteException e) {
+                // local call, cannot fail
+            }
+        }
+        Wire.Frame ack = new Wire.Frame(id, Wire.REPLY);
+        Wire.write(ack.out, null);
+        synchronized (writeLock) {
+            ack.send(channel, 0);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * NioServer.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NioServer: server end of the NIO transport. Each proxy connection has a reader
+ * thread that decodes calls and hands them to a shared worker pool, so the calls
+ * of one proxy run concurrently and reply in any order. Ranges of a file read by
+ * readBlockOnServer go from the page cache to the socket with transferTo, without
+ * passing through the heap, unless chunks may be compressed.
+ */
+public class NioServer extends Thread {
+
+    /* time a revocation waits for the proxy's acknowledgement */
+    private static final long REVOKEMILLIS = 1000;
+
+    private Server server;
+    private ServerSocketChannel listener;
+    private ExecutorService workers = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "nio-server-worker");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /* zero-copy block replies and bytes sent by them */
+    public AtomicLong transferCnt = new AtomicLong();
+    public AtomicLong transferBytes = new AtomicLong();
+
+    /**
+     * NioServer constructor
+     * @param server         server the calls go to
+     * @param port           port to listen on
+     * @throws IOException
+     */
+    public NioServer(Server server, int port) throws IOException {
+        super("nio-server-acceptor");
+        this.server = server;
+        listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress(port));
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                SocketChannel channel = listener.accept();
+                channel.socket().setTcpNoDelay(true);
+                final Connection connection = new Connection(channel);
+                Thread reader = new Thread("nio-server-reader") {
+                    @Override
+                    public void run() {
+                        connection.readLoop();
+                    }
+                };
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Connection: one proxy connection. It is also the lease callback of that
+     * proxy, revoking a lease sends a revoke frame and waits for its reply.
+     */
+    private class Connection implements LeaseCallback {
+        final SocketChannel channel;
+        final Object writeLock = new Object();
+        final AtomicLong nextId = new AtomicLong();
+        final ConcurrentHashMap<Long, CountDownLatch> acks = new ConcurrentHashMap<>();
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * readLoop: dispatch calls and revocation replies until the proxy disconnects
+         */
+        void readLoop() {
+            ByteBuffer header = ByteBuffer.allocate(Wire.HEADER);
+            try {
+                byte[] payload;
+                while ((payload = Wire.readFrame(channel, header)) != null) {
+                    try {
+                        dispatch(header.getLong(4), header.get(12), Wire.payload(payload, header));
+                    } finally {
+                        BufferPool.put(payload);
+                    }
+                }
+            } catch (IOException e) {
+                // proxy went away
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * dispatch: decode a call and hand it to a worker, or take a revocation reply
+         * @param id             request id
+         * @param kind           frame kind
+         * @param in             payload stream
+         * @throws IOException
+         */
+        void dispatch(final long id, byte kind, DataInputStream in) throws IOException {
+            if (kind == Wire.REPLY) {
+                CountDownLatch ack = acks.remove(id);
+                if (ack != null) ack.countDown();
+                return;
+            }
+            final Method method = Wire.METHODS[in.readShort()];
+            final Object[] args = new Object[method.getParameterTypes().length];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = Wire.read(in, this);
+            }
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serve(id, method, args);
+                }
+            });
+        }
+
+        /**
+         * serve: run a call and send its reply
+         * @param id             request id
+         * @param method         ServerInf method
+         * @param args           arguments
+         */
+        void serve(long id, Method method, Object[] args) {
+            try {
+                if (method.getName().equals("readBlockOnServer") && !Compression.enabled
+                        && sendBlock(id, (String) args[0], (Long) args[1], (Long) args[2], (Integer) args[3])) {
+                    return;
+                }
+                Wire.Frame frame;
+                try {
+                    Object result = method.invoke(server, args);
+                    frame = new Wire.Frame(id, Wire.REPLY);
+                    Wire.write(frame.out, result);
+                } catch (InvocationTargetException e) {
+                    frame = new Wire.Frame(id, Wire.ERROR);
+                    frame.out.writeUTF(String.valueOf(e.getCause()));
+                } catch (IllegalAccessException | IllegalArgumentException e) {
+                    frame = new Wire.Frame(id, Wire.ERROR);
+                    frame.out.writeUTF(String.valueOf(e));
+                }
+                synchronized (writeLock) {
+                    frame.send(channel, 0);
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * sendBlock: reply to readBlockOnServer with the range sent straight from
+         * the file's channel
+         * @return false if the version is gone, to reply through the normal path
+         * @throws IOException if the connection failed, or the file shrank under
+         *                     the transfer and the frame cannot be completed
+         */
+        boolean sendBlock(long id, String path, long version, long offset, int readSize) throws IOException {
+            HandlePool.Handle handle = server.acquireBlock(path, version);
+            if (handle == null) return false;
+            try {
+                int size = (int) Math.max(0, Math.min(readSize, handle.channel.size() - offset));
+                Wire.Frame frame = new Wire.Frame(id, Wire.REPLY);
+                frame.out.writeByte(Wire.CHUNK);
+                frame.out.writeInt(size);
+                frame.out.writeBoolean(false);
+                frame.out.writeByte(size > 0 ? Chunk.RAW : Chunk.NONE);
+                synchronized (writeLock) {
+                    frame.send(channel, size);
+                    long done = 0;
+                    while (done < size) {
+                        long n = handle.channel.transferTo(offset + done, size - done, channel);
+                        if (n <= 0) throw new IOException("file shrank under transfer: " + path);
+                        done += n;
+                    }
+                }
+                transferCnt.incrementAndGet();
+                transferBytes.addAndGet(size);
+                return true;
+            } finally {
+                server.releaseBlock(handle);
+            }
+        }
+
+        @Override
+        public void revoke(String path) throws RemoteException {
+            long id = nextId.incrementAndGet();
+            CountDownLatch ack = new CountDownLatch(1);
+            acks.put(id, ack);
+            try {
+                Wire.Frame frame = new Wire.Frame(id, Wire.REVOKE);
+                frame.out.writeUTF(path);
+                synchronized (writeLock) {
+                    frame.send(channel, 0);
+                }
+                if (!ack.await(REVOKEMILLIS, TimeUnit.MILLISECONDS)) {
+                    throw new RemoteException("revocation of " + path + " not acknowledged");
+                }
+            } catch (IOException e) {
+                throw new RemoteException("revocation of " + path + " failed", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("interrupted revoking " + path);
+            } finally {
+                acks.remove(id);
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * OpenFile.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.IOException;
+
+/**
+ * OpenFile: the content of a cached file as seen by one file descriptor.
+ * Each file descriptor keeps its own position.
+ */
+public interface OpenFile {
+
+    // read: read from the current position, return -1 at the end of file
+    public int read(byte[] buf) throws IOException;
+
+    // write: write at the current position
+    public void write(byte[] buf) throws IOException;
+
+    // growth: cache bytes newly occupied if len bytes were written at the current position
+    public long growth(long len) throws IOException;
+
+    // getFilePointer: the current position
+    public long getFilePointer() throws IOException;
+
+    // seek: set the current position
+    public void seek(long pos) throws IOException;
+
+    // length: the length of the file
+    public long length() throws IOException;
+
+    // close: release the underlying files
+    public void close() throws IOException;
+}
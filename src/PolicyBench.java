@@ -0,0 +1,114 @@
+/**
+ * PolicyBench.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * PolicyBench: runs each eviction policy over the same synthetic trace, without
+ * files or a server:
+ * 1. opens of a skewed set of paths in a cache of a fixed byte size, with some of
+ *    the paths unlinked now and then; prints the hit ratio and the per-path state
+ *    the policy keeps, which must stay bounded by the cached paths and ghosts;
+ * 2. a path referenced a few times, unlinked and created again; the policy must
+ *    keep no state of it once unlinked, and take it back as new.
+ *
+ * java PolicyBench [opens] [paths] [capacity]
+ */
+public class PolicyBench {
+
+    private static final String[] POLICIES = {"lru", "lfu", "arc", "s3fifo", "tinylfu"};
+
+    public static void main(String[] args) {
+        int opens = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int paths = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        long capacity = args.length > 2 ? Long.parseLong(args[2]) : 16 * 1024 * 1024;
+
+        for (String name : POLICIES) {
+            Cache.EvictionPolicy policy = Cache.createPolicy(name, capacity);
+            HashMap<String, CacheFile> cached = new HashMap<>();
+            Random random = new Random(1);
+            long hits = 0;
+            long unlinks = 0;
+            int maxTracked = 0;
+            for (int i = 0; i < opens; i++) {
+                // skewed: low path numbers are opened far more often
+                double u = random.nextDouble();
+                String path = "f" + (int) (paths * u * u * u);
+                CacheFile caFile = cached.get(path);
+                if (random.nextInt(100) < 2) {
+                    // unlinked on server, and created again by a later open
+                    if (caFile != null) {
+                        unlink(policy, cached, caFile);
+                        unlinks++;
+                    } else {
+                        policy.forget(path);
+                    }
+                    continue;
+                }
+                if (caFile != null) {
+                    hits++;
+                    // unlinked while open, linked again on close
+                    policy.remove(caFile);
+                    policy.add(caFile);
+                } else {
+                    caFile = new CacheFile(path, path, 0);
+                    caFile.fileSize = 1024 + (path.hashCode() & 0xffff);
+                    cached.put(path, caFile);
+                    policy.add(caFile);
+                    while (policy.bytes() > capacity) {
+                        CacheFile victim = policy.victim();
+                        if (victim == null) break;
+                        cached.remove(victim.path);
+                    }
+                }
+                maxTracked = Math.max(maxTracked, policy.tracked());
+            }
+            System.out.printf("policy=%s opens=%d unlinks=%d hitRatio=%.3f cached=%d tracked=%d maxTracked=%d%n",
+                    name, opens, unlinks, (double) hits / opens, cached.size(), policy.tracked(), maxTracked);
+
+            // every path unlinked, cached or remembered as evicted: no state may be left
+            for (CacheFile caFile : cached.values().toArray(new CacheFile[0])) {
+                unlink(policy, cached, caFile);
+            }
+            for (int i = 0; i < paths; i++) {
+                policy.forget("f" + i);
+            }
+            check(name, "state after unlinking all", policy.tracked(), 0);
+
+            // unlink and re-create one path referenced a few times
+            CacheFile caFile = new CacheFile("again", "again", 0);
+            caFile.fileSize = 1024;
+            for (int i = 0; i < 4; i++) {
+                policy.remove(caFile);
+                policy.add(caFile);
+            }
+            cached.put("again", caFile);
+            unlink(policy, cached, caFile);
+            check(name, "state after unlink", policy.tracked(), 0);
+            caFile = new CacheFile("again", "again", 0);
+            caFile.fileSize = 1024;
+            policy.add(caFile);
+            check(name, "state after re-create", policy.tracked(), 1);
+        }
+    }
+
+    /**
+     * unlink: drop a path from the cache the way CacheShard.unlinkPath does
+     */
+    private static void unlink(Cache.EvictionPolicy policy, HashMap<String, CacheFile> cached, CacheFile caFile) {
+        policy.remove(caFile);
+        policy.forget(caFile.path);
+        cached.remove(caFile.path);
+    }
+
+    private static void check(String name, String what, int actual, int expected) {
+        if (actual != expected) {
+            throw new IllegalStateException(name + ": " + what + " is " + actual + ", expected " + expected);
+        }
+        System.out.printf("policy=%s %s=%d ok%n", name, what.replace(' ', '-'), actual);
+    }
+}
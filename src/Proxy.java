@@ -6,7 +6,12 @@
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.rmi.*;
 import java.lang.Exception;
 import java.lang.IllegalArgumentException;
@@ -18,13 +23,104 @@ class Proxy {
 	private static String serverip;  // server IP
 	private static String cacheDir;  // cache directory
 	private static long cacheSize;   // cache size limit
+	private static String policyName = "lru";  // eviction policy of the cache
+	private static int shardCnt = Runtime.getRuntime().availableProcessors();  // number of cache shards
+	private static int highWater = 90;  // usage percent waking the reclaimer
+	private static int lowWater = 75;   // usage percent the reclaimer evicts down to
+	private static boolean mmapReads = false;  // share one mapping among readers of a version
+	private static long memTierSize = 0;        // memory tier budget, 0 to disable
+	private static long memThreshold = 64 * 1024;  // max size of a file in the memory tier
+	private static int promoteHits = 2;         // disk hits before a small file moves to memory
+	private static boolean journal = true;      // reuse cached files across restarts
+	private static int blockSize = 0;           // block size for large read-only files, 0 to disable
+	private static boolean deltaUploads = true; // upload only the blocks changed since the fetched version
+	private static int fetchWindow = 4;         // chunk requests in flight when reading a file
+	private static long latencyMillis = 0;      // round-trip time added to server calls, for measurement
+	private static int batchSize = 64;          // max version checks in one call, 0 to check each open alone
+	private static long batchWait = 0;          // microseconds a batch of version checks waits for more
+	private static boolean leases = true;       // serve hits without the server while leased
+	private static String transport = "rmi";    // rmi, or nio for the binary transport
+	private static ServerInf nioServer;         // connection shared by all clients with nio
 
 	private static Cache cache;  // cache object within a proxy
 	public static final int MAXCHUNKSIZE = 100000;  // max chunk size
+	public static final int MAXDELTA = 16 * 1024 * 1024;  // max literal bytes of a delta upload
+	public static final int MAXREADRETRIES = 3;  // failed chunk reads before a download gives up
 
 	// used to generate non-repeate file descriptor
 	private static AtomicInteger uniqueFD = new AtomicInteger(0);
 
+	/* worker threads of pipelined chunk fetches */
+	private static ExecutorService fetchPool = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "chunk-fetcher");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/* locks serializing the transfers of a path, path as key; an entry lives only
+	   while a transfer of its path holds or waits for it, so transfers of different
+	   paths never wait on each other */
+	private static final HashMap<String, TransferLock> transferLockMap = new HashMap<>();
+
+	/* downloads in progress, version and path as key */
+	private static ConcurrentHashMap<String, Flight> flightMap = new ConcurrentHashMap<>();
+
+	/**
+	 * Flight: a download of one version of a file, shared by the opens that need it.
+	 * The first open fetches into a temp file; the others wait until it is installed.
+	 */
+	private static class Flight {
+		String key;
+		CountDownLatch done = new CountDownLatch(1);
+		int result;  // file length, Integer.MIN_VALUE for a directory, < 0 if failed
+		File tmp;  // fetched content, until installed
+
+		Flight(String key) {
+			this.key = key;
+		}
+	}
+
+	/**
+	 * TransferLock: the lock of a path, with the number of transfers holding or
+	 * waiting for it
+	 */
+	private static class TransferLock extends ReentrantLock {
+		int users;
+	}
+
+	/**
+	 * lockTransfer: lock the transfers of a path, waiting for the one under way
+	 * @param path            original path
+	 * @return lock to give back with unlockTransfer
+	 */
+	private static TransferLock lockTransfer(String path) {
+		TransferLock lock;
+		synchronized (transferLockMap) {
+			lock = transferLockMap.get(path);
+			if (lock == null) {
+				lock = new TransferLock();
+				transferLockMap.put(path, lock);
+			}
+			lock.users++;
+		}
+		lock.lock();
+		return lock;
+	}
+
+	/**
+	 * unlockTransfer: unlock the transfers of a path, dropping its lock once unused
+	 * @param path            original path
+	 * @param lock            lock from lockTransfer
+	 */
+	private static void unlockTransfer(String path, TransferLock lock) {
+		lock.unlock();
+		synchronized (transferLockMap) {
+			if (--lock.users == 0) transferLockMap.remove(path);
+		}
+	}
+
 	/**
 	 * connectToServer: connect to server.
 	 * @param serverip            Server IP
@@ -35,13 +131,28 @@ class Proxy {
 		String serverUrl = "//" + serverip + ":" + serverport + "/Server";
 		ServerInf server = null;
 		try {
-			server = (ServerInf) Naming.lookup(serverUrl);
+			if (transport.equals("nio")) {
+				// one connection multiplexes the calls of every client
+				synchronized (Proxy.class) {
+					if (nioServer == null) {
+						nioServer = NioClient.connect(serverip, Integer.parseInt(serverport));
+					}
+					server = nioServer;
+				}
+			} else {
+				server = (ServerInf) Naming.lookup(serverUrl);
+			}
+			if (latencyMillis > 0) {
+				server = LatencyServer.wrap(server, latencyMillis);
+			}
 		} catch (NotBoundException e1) {
 			e1.printStackTrace();
 		} catch (RemoteException e2) {
 			e2.printStackTrace();
 		} catch (MalformedURLException e3) {
 			e3.printStackTrace();
+		} catch (IOException e4) {
+			e4.printStackTrace();
 		}
 		return server;
 	}
@@ -53,8 +164,8 @@ class Proxy {
 		
 		ServerInf server = null;
 
-		/* map conatains file descriptor as a key, the opened RandomAccessFile as a value */
-		HashMap<Integer, RandomAccessFile> fdFileMap;
+		/* map conatains file descriptor as a key, the opened OpenFile as a value */
+		HashMap<Integer, OpenFile> fdFileMap;
 
 		/* set containsfile descriptors corresponding with opend directories */
 		HashSet<Integer> dirSet;
@@ -72,7 +183,29 @@ class Proxy {
 			dirSet = new HashSet<>();
 			synchronized (Cache.class) {
 				if (cache == null) {
-					cache = new Cache(cacheDir, cacheSize);
+					cache = new Cache(cacheDir, cacheSize, policyName, shardCnt, highWater, lowWater);
+					if (memTierSize > 0) {
+						cache.memTier = new MemoryTier(memTierSize, memThreshold, promoteHits);
+					}
+					if (journal) {
+						cache.restore();
+					}
+					if (blockSize > 0) {
+						cache.blocks = new BlockStore(cache, blockSize);
+					}
+					if (leases) {
+						try {
+							long term = server.leaseTerm();
+							if (term > 0) cache.leases = new LeaseTable(term);
+						} catch (RemoteException e) {
+							e.printStackTrace();
+						}
+					}
+					if (batchSize > 0) {
+						cache.validator = new Validator(connectToServer(serverip, serverport), cache.leases,
+								batchSize, batchWait);
+						cache.validator.start();
+					}
 				}
 			}
 		}
@@ -107,69 +240,72 @@ class Proxy {
 		}
 
 		/**
-		 * readFromServer: read file from server into cache.
+		 * readFromServer: read file from server into a file in cache.
 		 * @param path         original path of the file
 		 * @param o            open option
-		 * @return the length of readed file
+		 * @param first        the chunk at offset 0 if already fetched, or null
+		 * @param version      the version opened
+		 * @param target       the file to write
+		 * @return the length of readed file, EBUSY if the version changed during the
+		 *         pipelined fetch, < 0 if failed
 		 */
-		private synchronized int readFromServer(String path, OpenOption o) {
-			String pathWithoutSubdir = dealWithSubdirs(path);
-			String cachePath = createCachePath(pathWithoutSubdir);
-
-			boolean isDir = false;
-
-			File file = new File(cachePath);
-			if (!file.exists()) {
-				try {
-					if (!file.isDirectory()) {
-						file.createNewFile();
-					}
-				} catch (IOException e) {
-					return Errors.ENOENT;
-				}
-			}
-
+		private int readFromServer(String path, OpenOption o, Chunk first, long version, File target) {
 			FileOutputStream outStream = null;
 			try {
-				outStream = new FileOutputStream(cachePath);
+				outStream = new FileOutputStream(target);
 			} catch (FileNotFoundException e) {
 				e.printStackTrace();
+				return Errors.ENOENT;
 			}
 
 			int readLen = 0;
 			int offset = 0;
+			int failures = 0;
 			int chunkSize = Math.min ((int) (cacheSize / 10), MAXCHUNKSIZE);
-			synchronized (Server.class) {
-				while (true) {          // use loop to read chunks of data from server
-					Chunk chunk = null;
-					try {
-						chunk = server.readOnServer(path, offset, chunkSize, o, cacheSize);
-						if (chunk.size > 0) {
-							outStream.write(chunk.content, 0, chunk.size);
-							readLen += chunk.size;
-							offset += chunk.size;
-							if (!chunk.remain) {
-								break;
-							}
-						} else {
-							int ret = chunk.size;
-							try {
-								outStream.close();
-							} catch (IOException e) {
-								e.printStackTrace();
-							}
-							if (ret == Integer.MIN_VALUE) {
-								file.mkdirs();
+			try {
+				TransferLock transfer = lockTransfer(path);
+				try {
+					while (true) {          // use loop to read chunks of data from server
+						Chunk chunk = first;
+						first = null;
+						try {
+							if (chunk == null) chunk = server.readOnServer(path, offset, chunkSize, o, cacheSize);
+							if (chunk.size > 0) {
+								outStream.write(chunk.content, 0, chunk.size);
+								chunk.release();
+								readLen += chunk.size;
+								offset += chunk.size;
+								if (!chunk.remain) {
+									break;
+								}
+								if (fetchWindow > 1 && readLen == chunk.size) {
+									// after the first chunk, fetch the rest with requests in flight
+									long rest = fetchPipelined(path, version, outStream.getChannel(), offset, chunkSize);
+									if (rest < 0) {
+										// the first chunk is of a version now gone: fail the download
+										// rather than store a mix of two versions under this one
+										return (int) rest;
+									}
+									readLen += rest;
+									break;
+								}
+							} else {
+								return chunk.size;
 							}
-							return ret;
-						}
 	
-					} catch (RemoteException e1) {
-						e1.printStackTrace();
-					} catch (IOException e2) {
-						e2.printStackTrace();
+						} catch (RemoteException e1) {
+							e1.printStackTrace();
+							// the lock holds off other opens of the path: do not retry forever
+							if (++failures >= MAXREADRETRIES) return Errors.EPERM;
+						} catch (IOException e2) {
+							e2.printStackTrace();
+							if (++failures >= MAXREADRETRIES) return Errors.EPERM;
+						}
 					}
+				} finally {
+					unlockTransfer(path, transfer);
 				}
+			} finally {
 				try {
 					outStream.close();
 				} catch (IOException e) {
@@ -180,54 +316,542 @@ class Proxy {
 			return readLen;
 		}
 
+		/**
+		 * fetchPipelined: fetch the rest of a file with up to fetchWindow range requests
+		 * in flight on worker threads. Each chunk is written at its offset with a
+		 * positional write. The end of the file is the end of the first short chunk.
+		 * @param path         original path of the file
+		 * @param version      the version opened
+		 * @param channel      channel of the file in cache
+		 * @param from         offset to fetch from
+		 * @param chunkSize    size of each request
+		 * @return bytes fetched, < 0 if failed (e.g. the version changed on server)
+		 */
+		private long fetchPipelined(final String path, final long version, final FileChannel channel,
+				long from, final int chunkSize) {
+			CompletionService<Integer> cs = new ExecutorCompletionService<>(fetchPool);
+			Map<Future<Integer>, Long> offsetMap = new HashMap<>();
+			long next = from;
+			long end = Long.MAX_VALUE;
+			int error = 0;
+			while (true) {
+				while (error == 0 && offsetMap.size() < fetchWindow && next < end) {
+					final long offset = next;
+					Future<Integer> f = cs.submit(new Callable<Integer>() {
+						public Integer call() throws IOException {
+							Chunk chunk = server.readBlockOnServer(path, version, offset, chunkSize);
+							if (chunk.size > 0) {
+								channel.write(ByteBuffer.wrap(chunk.content, 0, chunk.size), offset);
+								chunk.release();
+							}
+							return chunk.size;
+						}
+					});
+					offsetMap.put(f, offset);
+					next += chunkSize;
+				}
+				if (offsetMap.isEmpty()) break;
+				try {
+					Future<Integer> f = cs.take();
+					long offset = offsetMap.remove(f);
+					int size = f.get();
+					if (size < 0) {
+						error = size;
+					} else if (size < chunkSize) {
+						end = Math.min(end, offset + size);
+					}
+				} catch (InterruptedException | ExecutionException e) {
+					e.printStackTrace();
+					error = Errors.EPERM;
+				}
+			}
+			if (error != 0) return error;
+			return end - from;
+		}
+
+		/**
+		 * patchFromServer: bring a stale cached file up to date by fetching only the
+		 * blocks whose hashes differ on server. Unchanged blocks are copied from the
+		 * stale file into a new file, which then replaces it, as read copies may still
+		 * link to the stale one.
+		 * @param path         original path of the file
+		 * @param latestTime   the latest version on server
+		 * @param staleFile    the stale file in cache
+		 * @param target       the file to write
+		 * @return the length of the new version, < 0 if failed (then the whole file
+		 *         has to be read)
+		 */
+		private int patchFromServer(String path, long latestTime, File staleFile, File target) {
+			int deltaBlock = Rsync.blockSize(staleFile.length());
+			RandomAccessFile input = null;
+			OutputStream output = null;
+			byte[] block = null;
+			try {
+				Signatures sig = null;
+				TransferLock transfer = lockTransfer(path);
+				try {
+					sig = server.sendBlockHashes(path, deltaBlock);
+				} finally {
+					unlockTransfer(path, transfer);
+				}
+				if (sig == null || sig.version != latestTime) return Errors.EBUSY;
+				Signatures local = Rsync.sign(staleFile, deltaBlock, true);
+				output = new BufferedOutputStream(new FileOutputStream(target));
+				input = new RandomAccessFile(staleFile, "r");
+				block = BufferPool.get(deltaBlock);
+				long fetched = 0;
+				for (int i = 0; i < sig.strong.length; i++) {
+					long offset = (long) i * deltaBlock;
+					int len = (int) Math.min(deltaBlock, sig.length - offset);
+					if (i < local.strong.length && Arrays.equals(local.strong[i], sig.strong[i])) {
+						input.seek(offset);
+						input.readFully(block, 0, len);
+						output.write(block, 0, len);
+					} else {
+						Chunk chunk = null;
+						transfer = lockTransfer(path);
+						try {
+							chunk = server.readBlockOnServer(path, latestTime, offset, len);
+						} finally {
+							unlockTransfer(path, transfer);
+						}
+						if (chunk.size != len) return Errors.EBUSY;
+						output.write(chunk.content, 0, len);
+						chunk.release();
+						fetched += len;
+					}
+				}
+				output.close();
+				output = null;
+				cache.deltaDownloadCnt.incrementAndGet();
+				cache.deltaFetchBytes.addAndGet(fetched);
+				return (int) sig.length;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return Errors.EPERM;
+			} finally {
+				try {
+					if (input != null) input.close();
+					if (output != null) output.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				BufferPool.put(block);
+			}
+		}
+
+		/**
+		 * fetchShared: download a version of a file once for all concurrent opens.
+		 * The first open of a version fetches it into a temp file, patching the stale
+		 * cached file if there is one; it must install the result and then call
+		 * completeFlight. Other opens of the same version wait for that.
+		 * @param path         original path of the file
+		 * @param o            open option
+		 * @param first        the chunk at offset 0 if already fetched, or null
+		 * @param version      the latest version on server
+		 * @param cachePath    path of the file in cache
+		 * @return the download to install, null if another open has installed it
+		 */
+		private Flight fetchShared(String path, OpenOption o, Chunk first, long version, String cachePath) {
+			Flight flight = new Flight(version + ":" + path);
+			Flight running = flightMap.putIfAbsent(flight.key, flight);
+			if (running != null) {
+				try {
+					running.done.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				cache.sharedFetchCnt.incrementAndGet();
+				return null;
+			}
+
+			try {
+				flight.tmp = File.createTempFile(".fetch-", null, new File(cacheDir));
+			} catch (IOException e) {
+				e.printStackTrace();
+				flight.result = Errors.EPERM;
+				return flight;
+			}
+			int readLen = Errors.ENOENT;
+			File staleFile = new File(cachePath);
+			if (first == null && o != OpenOption.CREATE_NEW && staleFile.isFile() && staleFile.length() > 0) {
+				// a stale version only needs the blocks that changed; link it first,
+				// so a writer replacing it meanwhile cannot mix two versions
+				File base = new File(flight.tmp.getPath() + ".base");
+				try {
+					Files.createLink(base.toPath(), staleFile.toPath());
+					readLen = patchFromServer(path, version, base, flight.tmp);
+				} catch (IOException | UnsupportedOperationException e) {
+					readLen = Errors.ENOENT;
+				} finally {
+					base.delete();
+				}
+			}
+			if (readLen < 0) {
+				readLen = readFromServer(path, o, first, version, flight.tmp);
+			}
+			flight.result = readLen;
+			return flight;
+		}
+
+		/**
+		 * completeFlight: end a download and wake the opens waiting on it
+		 * @param flight       the download
+		 */
+		private void completeFlight(Flight flight) {
+			if (flight.tmp != null) flight.tmp.delete();
+			flightMap.remove(flight.key, flight);
+			flight.done.countDown();
+		}
+
 		/**
 		 * sendToServer: send the newest version to server.
+		 * 1. If less than half of the file was written, send only the written ranges.
+		 * 2. Otherwise, or if that fails, send an rsync-style delta.
+		 * 3. If both fail, send the whole file.
 		 * @param caFile       CacheFile object
-		 * @param fd           file descriptor
-		 * @return the length of sended file
+		 * @param cow          CowFile written through the file descriptor
+		 * @return the version committed on server, < 0 if failed
 		 */
-		public synchronized int sendToServer(CacheFile caFile, int fd) {
+		public synchronized long sendToServer(CacheFile caFile, CowFile cow) {
+			if (cow.dirtyBytes() <= cow.length() / 2) {
+				long ret = sendRanges(caFile, cow);
+				if (ret >= 0) return ret;
+			}
+			if (deltaUploads) {
+				long ret = sendDelta(caFile);
+				if (ret >= 0) return ret;
+			}
 			FileInputStream input = null;
 			try {
 				input = new FileInputStream(caFile.realPath);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
-			int chunkSize = 1024 * 8;
-			Chunk chunk = new Chunk(chunkSize);
 			File file = new File(caFile.realPath);
-			int fileLen = (int) file.length();
-			int offset = 0;
-			synchronized (Server.class) {
-				while (offset < fileLen) {
-					int readLen = 0;
-					try {
-						readLen = input.read(chunk.content, 0, chunkSize);
-					} catch (IOException e) {
-						e.printStackTrace();
+			return sendToServer(caFile.path, input, (int) file.length());
+		}
+
+		/**
+		 * sendRanges: send the ranges written through the file descriptor and the new
+		 * length in an upload session staged from the fetched version, batched up to
+		 * MAXCHUNKSIZE bytes per call.
+		 * @param caFile       CacheFile object
+		 * @param cow          CowFile written through the file descriptor
+		 * @return the version committed on server, < 0 if the base version is gone
+		 */
+		private long sendRanges(CacheFile caFile, CowFile cow) {
+			long version = caFile.modifiedTime;
+			if (version <= 0) return Errors.EINVAL;
+			long length = cow.length();
+			RandomAccessFile input = null;
+			Chunk batch = null;
+			long session = Errors.EINVAL;
+			try {
+				TransferLock transfer = lockTransfer(caFile.path);
+				try {
+					session = server.beginUpload(caFile.path, version);
+					if (session < 0) return session;
+					input = new RandomAccessFile(caFile.realPath, "r");
+					// ranges of a batch are packed back to back in one pooled chunk
+					batch = new Chunk(MAXCHUNKSIZE);
+					batch.size = 0;
+					List<Long> offsets = new ArrayList<>();
+					List<Integer> lengths = new ArrayList<>();
+					long sent = 0;
+					for (long[] extent : cow.dirtyExtents()) {
+						long start = extent[0];
+						long end = Math.min(extent[1], length);
+						while (start < end) {
+							int len = (int) Math.min(end - start, MAXCHUNKSIZE - batch.size);
+							input.seek(start);
+							input.readFully(batch.content, batch.size, len);
+							offsets.add(start);
+							lengths.add(len);
+							batch.size += len;
+							start += len;
+							if (batch.size == MAXCHUNKSIZE) {
+								int ret = stageRanges(session, offsets, lengths, batch);
+								if (ret < 0) return ret;
+								sent += ret;
+							}
+						}
 					}
-					if (readLen < 0) {
-						return Errors.EPERM;
+					if (!offsets.isEmpty()) {
+						int ret = stageRanges(session, offsets, lengths, batch);
+						if (ret < 0) return ret;
+						sent += ret;
 					}
-					chunk.size = readLen;
-					int writeLen = 0;
-					try {
-						writeLen = server.writeOnServer(caFile.path, chunk, offset);
+					version = server.commitUpload(session, length);
+					session = Errors.EINVAL;  // committed or discarded by the server
+					if (version < 0) return version;
+					cache.sentBytes.addAndGet(sent);
+					cache.rangeUploadCnt.incrementAndGet();
+					return version;
+				} finally {
+					unlockTransfer(caFile.path, transfer);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				return Errors.EPERM;
+			} finally {
+				abortUpload(session);
+				if (batch != null) batch.release();
+				try {
+					if (input != null) input.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		/**
+		 * stageRanges: send a batch of ranges to an upload session, then clear it
+		 * @param session      upload session
+		 * @param offsets      byte offset of each range
+		 * @param lengths      length of each range
+		 * @param batch        content of the ranges, back to back
+		 * @return bytes staged, < 0 if failed
+		 * @throws RemoteException
+		 */
+		private int stageRanges(long session, List<Long> offsets, List<Integer> lengths, Chunk batch)
+				throws RemoteException {
+			long[] offsetArr = new long[offsets.size()];
+			int[] lengthArr = new int[lengths.size()];
+			for (int i = 0; i < offsetArr.length; i++) {
+				offsetArr[i] = offsets.get(i);
+				lengthArr[i] = lengths.get(i);
+			}
+			offsets.clear();
+			lengths.clear();
+			try {
+				return server.stageRanges(session, offsetArr, lengthArr, batch);
+			} finally {
+				batch.size = 0;
+			}
+		}
+
+		/**
+		 * abortUpload: discard an upload session left open by a failed upload
+		 * @param session      upload session, < 0 if none
+		 */
+		private void abortUpload(long session) {
+			if (session < 0) return;
+			try {
+				server.abortUpload(session);
+			} catch (RemoteException e) {
+				// the server discards idle sessions itself
+			}
+		}
+
+		/**
+		 * sendDelta: send only the blocks changed since the version the copy is based on.
+		 * The server signs the blocks of that version, the delta against them is shipped
+		 * with the literal bytes in between.
+		 * @param caFile       CacheFile object
+		 * @return the version committed on server, < 0 if the base version is gone or
+		 *         the delta is not small (then the whole file has to be sent)
+		 */
+		private long sendDelta(CacheFile caFile) {
+			File file = new File(caFile.realPath);
+			long fileLen = file.length();
+			int deltaBlock = Rsync.blockSize(fileLen);
+			if (caFile.modifiedTime <= 0 || fileLen < 2L * deltaBlock) {
+				return Errors.EINVAL;
+			}
+			try {
+				Signatures sig = null;
+				TransferLock transfer = lockTransfer(caFile.path);
+				try {
+					sig = server.sendSignatures(caFile.path, caFile.modifiedTime, deltaBlock);
+				} finally {
+					unlockTransfer(caFile.path, transfer);
+				}
+				if (sig == null) return Errors.ENOENT;
+				Delta delta = Rsync.encode(file, sig, Math.min(fileLen / 2, MAXDELTA));
+				if (delta == null) return Errors.ENOMEM;
+				long ret = 0;
+				transfer = lockTransfer(caFile.path);
+				try {
+					ret = server.patchOnServer(caFile.path, caFile.modifiedTime, delta);
+				} finally {
+					unlockTransfer(caFile.path, transfer);
+				}
+				if (ret >= 0) {
+					cache.sentBytes.addAndGet(delta.literals.length + 4L * delta.ops.length);
+					cache.deltaCnt.incrementAndGet();
+				}
+				return ret;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return Errors.EPERM;
+			}
+		}
+
+		/**
+		 * sendToServer: send the content of a stream to server as the newest version,
+		 * staged in an upload session and installed whole on commit.
+		 * @param path         original path of the file
+		 * @param input        stream of the file content
+		 * @param fileLen      length of the file
+		 * @return the version committed on server, < 0 if failed
+		 */
+		private synchronized long sendToServer(String path, InputStream input, int fileLen) {
+			int chunkSize = 1024 * 8;
+			Chunk chunk = new Chunk(chunkSize);
+			int offset = 0;
+			long session = Errors.EINVAL;
+			long version = Errors.EINVAL;
+			try {
+				TransferLock transfer = lockTransfer(path);
+				try {
+					session = server.beginUpload(path, -1);
+					if (session < 0) return session;
+					while (offset < fileLen) {
+						int readLen = input.read(chunk.content, 0, Math.min(chunkSize, fileLen - offset));
+						if (readLen < 0) {
+							return Errors.EPERM;
+						}
+						chunk.size = readLen;
+						int writeLen = server.stageUpload(session, chunk, offset);
 						if (writeLen < 0) {
 							return writeLen;
 						}
-					} catch (RemoteException e) {
-						e.printStackTrace();
+						cache.sentBytes.addAndGet(writeLen);
+						offset += writeLen;
 					}
-					offset += writeLen;
+					version = server.commitUpload(session, fileLen);
+					session = Errors.EINVAL;  // committed or discarded by the server
+					if (version < 0) return version;
+				} finally {
+					unlockTransfer(path, transfer);
 				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				return Errors.EPERM;
+			} finally {
+				abortUpload(session);
+				chunk.release();
 				try {
 					input.close();
 				} catch (Exception e) {
 					e.printStackTrace();
 				}
-			}	
-			return fileLen;
+			}
+			cache.fullUploadCnt.incrementAndGet();
+			return version;
+		}
+
+		/**
+		 * diskIsLatest: whether the cache directory holds the latest version of a file
+		 * @param path           original path
+		 * @param latestTime     the latest version on server
+		 * @return true, if up-to-date
+		 */
+		private boolean diskIsLatest(String path, long latestTime) {
+			CacheShard shard = cache.shardFor(path);
+			return shard.pathExist(path) && shard.lastModifiedTime(path) == latestTime;
+		}
+
+		/**
+		 * firstChunkSize: size of the chunk at offset 0, large enough for a small file.
+		 * @return chunk size
+		 */
+		private int firstChunkSize() {
+			int chunkSize = Math.min ((int) (cacheSize / 10), MAXCHUNKSIZE);
+			if (cache.memTier == null) return chunkSize;
+			return (int) Math.max(chunkSize, cache.memTier.threshold);
+		}
+
+		/**
+		 * cachedVersion: the version of a file the cache holds
+		 * @param path           original path
+		 * @return version, -1 if not cached
+		 */
+		private long cachedVersion(String path) {
+			if (cache.memTier != null) {
+				long version = cache.memTier.version(path);
+				if (version >= 0) return version;
+			}
+			CacheShard shard = cache.shardFor(path);
+			shard.lock.lock();
+			try {
+				return shard.pathExist(path) ? shard.lastModifiedTime(path) : -1;
+			} finally {
+				shard.lock.unlock();
+			}
+		}
+
+		/**
+		 * promoteToMemory: move a small up-to-date file from the cache directory to
+		 * the memory tier once it has been opened promoteHits times.
+		 * @param path           original path
+		 * @param latestTime     the latest version on server
+		 * @return the memory tier entry, null if not promoted
+		 */
+		private MemoryTier.Entry promoteToMemory(String path, long latestTime) {
+			CacheShard shard = cache.shardFor(path);
+			CacheFile origFile = shard.pathOrigFileMap.get(path);
+			if (origFile == null || origFile.fileSize > cache.memTier.threshold || !diskIsLatest(path, latestTime)) {
+				return null;
+			}
+			if (!cache.memTier.countDiskHit(path)) {
+				return null;
+			}
+			byte[] content = null;
+			shard.lock.lock();
+			try {
+				origFile = shard.pathOrigFileMap.get(path);
+				if (origFile == null || !diskIsLatest(path, latestTime)) return null;
+				content = java.nio.file.Files.readAllBytes(new File(origFile.realPath).toPath());
+				shard.dropPath(path);
+			} catch (IOException e) {
+				return null;
+			} finally {
+				shard.lock.unlock();
+			}
+			// installed outside the shard lock: demotion may lock other shards
+			MemoryTier.Entry e = cache.installInMemory(path, latestTime, content, content.length);
+			if (e != null) cache.memTier.promoteCnt.incrementAndGet();
+			return e;
+		}
+
+		/**
+		 * openInMemory: open a file served by the memory tier.
+		 * Readers share the cached buffer; a writer gets a private copy.
+		 * @param e              memory tier entry
+		 * @param path           original path
+		 * @param readOnly       if the file is read only
+		 * @param latestTime     the latest version on server
+		 * @param retFd          file descriptor
+		 * @return file descriptor
+		 */
+		private int openInMemory(MemoryTier.Entry e, String path, boolean readOnly, long latestTime, int retFd) {
+			CacheFile caFile = new CacheFile(path, null, latestTime);
+			caFile.inMemory = true;
+			caFile.readOnly = readOnly;
+			caFile.fileSize = e.data.capacity();
+			cache.fdCopyMap.put(retFd, caFile);
+			fdFileMap.put(retFd, new MemFile(e.data, !readOnly));
+			return retFd;
+		}
+
+		/**
+		 * openInBlocks: open a large read-only file served block by block.
+		 * @param path           original path
+		 * @param latestTime     the latest version on server
+		 * @param fileLen        file length on server
+		 * @param retFd          file descriptor
+		 * @return file descriptor
+		 */
+		private int openInBlocks(String path, long latestTime, long fileLen, int retFd) {
+			CacheFile caFile = new CacheFile(path, null, latestTime);
+			caFile.inBlocks = true;
+			caFile.readOnly = true;
+			caFile.fileSize = fileLen;
+			cache.fdCopyMap.put(retFd, caFile);
+			fdFileMap.put(retFd, new BlockFile(cache.blocks, server, path, latestTime, fileLen));
+			return retFd;
 		}
 
 		/**
@@ -248,79 +872,174 @@ class Proxy {
 				readOnly = true;
 			}
 
+			// a leased version is served without the server; otherwise validate the
+			// cached version, batched with concurrent opens; if stale, the first chunk
+			// comes in the same call as the new version
 			long latestTime = 0;
+			long cachedVersion = cachedVersion(path);
+			Fetch fetch = null;
+			long start = System.nanoTime();
 			try {
-				latestTime = server.sendModifiedTime(path);
+				if (cachedVersion >= 0 && cache.leases != null && cache.leases.valid(path, cachedVersion)) {
+					latestTime = cachedVersion;
+				} else if (cachedVersion >= 0 && cache.validator != null
+						&& cache.validator.validate(path, cachedVersion)) {
+					latestTime = cachedVersion;
+					if (cache.leases != null) cache.leases.grant(path, latestTime, start);
+				} else {
+					fetch = server.fetchIfNewer(path, cachedVersion, o, firstChunkSize(), cacheSize, cache.leases);
+					latestTime = fetch.version;
+					if (fetch.leased && latestTime >= 0) cache.leases.grant(path, latestTime, start);
+				}
 				if (latestTime < 0) {
 					return (int)latestTime;
 				}
+				// the cached version is still the latest, so the file exists on server
+				if (o == OpenOption.CREATE_NEW && (fetch == null || !fetch.modified)) {
+					return Errors.EEXIST;
+				}
 			} catch (RemoteException e) {
 				e.printStackTrace();
 			}
 			
 
 			int retFd = uniqueFD.getAndIncrement();
-			RandomAccessFile raf = null;
+			OpenFile raf = null;
 			CacheFile copy = null;
-			synchronized (cache) {
-				// to ensure the copy in cache is the newesst
-				if (readOnly && cache.lastCopyIsLatest(path, latestTime)) {
-					CacheFile lastCopy = cache.getLastCopy(path);
-					copy = lastCopy;
-					lastCopy.readCnt++;
-					cache.fdCopyMap.put(retFd, lastCopy);
-				} else {
-					String pathWithoutSubdirs = dealWithSubdirs(path);
-					String cachePath = createCachePath(pathWithoutSubdirs);
-					CacheFile origFile = null;
-					if (cache.pathOrigFileMap.containsKey(path)) {
-						origFile = cache.pathOrigFileMap.get(path);
-						cache.moveFromLru(origFile);
-					} else {
-						origFile = new CacheFile(path, cachePath, 0);
-						cache.pathOrigFileMap.put(path, origFile);
+			Chunk firstChunk = (fetch == null) ? null : fetch.chunk;
+			if (cache.memTier != null) {
+				MemoryTier.Entry e = cache.memTier.get(path, latestTime);
+				if (e == null) {
+					e = promoteToMemory(path, latestTime);
+				}
+				if (e != null) {
+					cache.recordHit(e.data.capacity());
+				} else if (!diskIsLatest(path, latestTime)) {
+					// the first chunk is sized to the memory threshold; small files end here
+					if (firstChunk != null && firstChunk.size >= 0 && !firstChunk.remain) {
+						byte[] content = (firstChunk.content == null) ? new byte[0] : firstChunk.content;
+						e = cache.installInMemory(path, latestTime, content, firstChunk.size);
+						if (e != null) cache.recordMiss(firstChunk.size);
 					}
-					if (!cache.pathExist(path) || cache.lastModifiedTime(path) != latestTime) {
-						// if not exists or not up-to-date, read from server
-						int readLen = readFromServer(path, o);
-						
-						if (readLen < 0) {
-							if (readLen == Integer.MIN_VALUE) { // is directory
-								isDir = true;
+				}
+				if (e != null) {
+					return openInMemory(e, path, readOnly, latestTime, retFd);
+				}
+			}
+			if (readOnly && cache.blocks != null && !diskIsLatest(path, latestTime)) {
+				// files larger than one block are read block by block on demand
+				long fileLen = (fetch != null && fetch.modified) ? fetch.length : 0;
+				if (fileLen > cache.blocks.blockSize) {
+					return openInBlocks(path, latestTime, fileLen, retFd);
+				}
+			}
+			CacheShard shard = cache.shardFor(path);
+			String pathWithoutSubdirs = dealWithSubdirs(path);
+			String cachePath = createCachePath(pathWithoutSubdirs);
+			Flight flight = null;
+			try {
+				while (true) {
+					boolean needFetch = false;
+					shard.lock.lock();
+					try {
+						// to ensure the copy in cache is the newesst
+						if (readOnly && shard.lastCopyIsLatest(path, latestTime)) {
+							CacheFile lastCopy = shard.getLastCopy(path);
+							copy = lastCopy;
+							cache.recordHit(lastCopy.fileSize);
+							lastCopy.readCnt++;
+							cache.fdCopyMap.put(retFd, lastCopy);
+						} else if ((!shard.pathExist(path) || shard.lastModifiedTime(path) != latestTime) && flight == null) {
+							// not exists or not up-to-date: download it without the shard lock
+							needFetch = true;
+						} else {
+							CacheFile origFile = null;
+							boolean stale = !shard.pathExist(path) || shard.lastModifiedTime(path) != latestTime;
+							if (shard.pathOrigFileMap.containsKey(path)) {
+								origFile = shard.pathOrigFileMap.get(path);
+								if (stale) {
+									// replaced below; read copies linked to it keep its bytes
+									shard.dropOrig(origFile);
+								} else {
+									shard.moveFromLru(origFile);
+								}
 							} else {
-								return readLen; // multiple kinds of errors
+								origFile = new CacheFile(path, cachePath, 0);
+								shard.pathOrigFileMap.put(path, origFile);
 							}
-						}
+							if (stale) {
+								// install the downloaded version; read copies may still link to
+								// the old file, so it is replaced, not rewritten
+								int readLen = flight.result;
+								File file = new File(cachePath);
+								if (readLen == Integer.MIN_VALUE) { // is directory
+									isDir = true;
+									if (file.isFile()) file.delete();
+									file.mkdirs();
+								} else if (!flight.tmp.renameTo(file)) {
+									return Errors.EPERM;
+								}
+								flight.tmp = null;
 
-						origFile.fileSize = readLen;					
-						cache.updateTime(path, latestTime);
-						if (isDir) {
-							fdFileMap.put(retFd, null);
-							dirSet.add(retFd);
-							return retFd;
-						}
-					} 
-					cache.lruList.addFirst(origFile);
-					if (!cache.incrCacheSize(origFile.fileSize)) {
-						if (!cache.evict(origFile.fileSize)) {
-							return Errors.ENOMEM;
-						}
-					}
-					CacheFile newCacheFile = new CacheFile(path, cachePath, latestTime);
-					newCacheFile.isDir = isDir;
-					newCacheFile.readOnly = readOnly;
-					File file = new File(cachePath);
-					newCacheFile.fileSize = (long)file.length();
+								origFile.fileSize = readLen;					
+								cache.recordMiss(readLen);
+								shard.updateTime(path, latestTime);
+								if (isDir) {
+									fdFileMap.put(retFd, null);
+									dirSet.add(retFd);
+									return retFd;
+								}
+							} else {
+								cache.recordHit(origFile.fileSize);
+							}
+							// reserve before linking into the policy, so a stalled reservation
+							// can never evict the file being opened
+							if (!shard.incrCacheSize(origFile.fileSize)) {
+								if (!shard.evict(origFile.fileSize)) {
+									shard.dropPath(path);
+									return Errors.ENOMEM;
+								}
+							}
+							CacheFile newCacheFile = new CacheFile(path, cachePath, latestTime);
+							newCacheFile.isDir = isDir;
+							newCacheFile.readOnly = readOnly;
+							File file = new File(cachePath);
+							newCacheFile.fileSize = (long)file.length();
 					
-					CacheFile newCopy = cache.pushNewFile(newCacheFile, retFd, readOnly);
-					if (newCopy.error < 0) return newCopy.error;
-					copy = newCopy;
+							CacheFile newCopy = shard.pushNewFile(newCacheFile, retFd, readOnly);
+							if (shard.pathOrigFileMap.get(path) == origFile) {
+								// still cached (not renamed to a read copy by pushNewFile)
+								shard.policy.add(origFile);
+								shard.journalPut(origFile);
+							}
+							copy = newCopy;
+							if (!readOnly) {
+								// open the committed version while it cannot be replaced
+								try {
+									raf = new CowFile(newCopy.basePath, newCopy.realPath);
+								} catch (IOException e) {
+									cache.fdCopyMap.remove(retFd);
+									return Errors.EPERM;
+								}
+							}
 
+						}
+					} finally {
+						shard.lock.unlock();
+					}
+					if (!needFetch) break;
+					flight = fetchShared(path, o, firstChunk, latestTime, cachePath);
+					if (flight != null && flight.result < 0 && flight.result != Integer.MIN_VALUE) {
+						return flight.result; // multiple kinds of errors
+					}
 				}
+			} finally {
+				if (flight != null) completeFlight(flight);
 			}
 				
 			try {
-				raf = new RandomAccessFile(copy.realPath, "rw");
+				if (raf == null && mmapReads) raf = MappedFile.share(copy);
+				if (raf == null) raf = new RafFile(copy.realPath);
 			} catch (IllegalArgumentException e1) {
 				return Errors.EINVAL;
 			} catch (FileNotFoundException e2) {
@@ -329,12 +1048,58 @@ class Proxy {
 				}
 			} catch (SecurityException e3) {
 				return Errors.EPERM;
+			} catch (IOException e4) {
+				return Errors.EPERM;
 			}
 			fdFileMap.put(retFd, raf);
 			return retFd;
 
 		}
 
+		/**
+		 * reserve: reserve cache space for a file, stalling if the hard limit is hit.
+		 * @param path        original path of the file
+		 * @param size        bytes to reserve
+		 * @return true, if reserved
+		 */
+		private boolean reserve(String path, long size) {
+			CacheShard shard = cache.shardFor(path);
+			if (size <= 0 || shard.incrCacheSize(size)) return true;
+			shard.lock.lock();
+			try {
+				return shard.evict(size);
+			} finally {
+				shard.lock.unlock();
+			}
+		}
+
+		/**
+		 * commit: turn the copy-on-write version into a whole file before upload,
+		 * and settle its reserved space to the final length.
+		 * @param caFile       CacheFile object of the copy
+		 * @param cow          CowFile opened on the copy
+		 * @return 0, if succeed; < 0, if failed
+		 */
+		private int commit(CacheFile caFile, CowFile cow) {
+			long len = cow.length();
+			if (len > caFile.reserved) {
+				if (!reserve(caFile.path, len - caFile.reserved)) {
+					return Errors.ENOMEM;
+				}
+			} else if (len < caFile.reserved) {
+				cache.shardFor(caFile.path).release(caFile.reserved - len);
+			}
+			caFile.reserved = len;
+			caFile.fileSize = len;
+			try {
+				cow.commit();
+			} catch (IOException e) {
+				e.printStackTrace();
+				return Errors.EPERM;
+			}
+			return 0;
+		}
+
 		/**
 		 * close: close the file.
 		 * If the file is not read only, need to send file content back to server
@@ -354,24 +1119,58 @@ class Proxy {
 				return Errors.EISDIR;
 			}
 			CacheFile caFile = cache.getFile(fd);
-			RandomAccessFile raFile = fdFileMap.get(fd);
+			OpenFile raFile = fdFileMap.get(fd);
 			if (raFile == null || caFile == null) {
 				fdFileMap.remove(fd);
 				return 0;
 			}
 			
 			boolean readOnly = caFile.readOnly;
-			// if not read-only, need to push update to server
+			if (caFile.inBlocks) {
+				cache.fdCopyMap.remove(fd);
+				fdFileMap.remove(fd);
+				return 0;
+			}
+			if (caFile.inMemory) {
+				if (!readOnly && ((MemFile) raFile).isModified()) {
+					MemFile memFile = (MemFile) raFile;
+					int len = (int) memFile.length();
+					long sendret = sendToServer(caFile.path, new ByteArrayInputStream(memFile.content(), 0, len), len);
+					if (sendret < 0) return (int) sendret;
+					// the version on server changed, the next open fetches it again
+					cache.memTier.remove(caFile.path);
+				}
+				((MemFile) raFile).close();
+				cache.fdCopyMap.remove(fd);
+				fdFileMap.remove(fd);
+				return 0;
+			}
+			// if not read-only, need to push update to server, unless nothing was written
 			if (!readOnly) {
-				int sendret = sendToServer(caFile, fd);
-				if (sendret < 0) return sendret;
+				long start = System.nanoTime();
+				CowFile cow = (CowFile) raFile;
+				int commitret = commit(caFile, cow);
+				if (commitret < 0) return commitret;
+				if (cow.isModified()) {
+					long sendret = sendToServer(caFile, cow);
+					if (sendret < 0) return (int) sendret;
+					// the cached copy is now the version just committed
+					caFile.modifiedTime = sendret;
+				} else {
+					cache.cleanCloseCnt.incrementAndGet();
+				}
+				cache.closeNanos.addAndGet(System.nanoTime() - start);
+				cache.closeCnt.incrementAndGet();
 			}
-			
-			synchronized(cache) {
-				int ret = cache.closeFile(fd);
-				if (ret < 0) return ret;
+			try {
+				raFile.close();
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
 			
+			int ret = cache.closeFile(fd);
+			if (ret < 0) return ret;
+			
 			fdFileMap.remove(fd);
 			return 0;
 		}
@@ -398,30 +1197,17 @@ class Proxy {
 			if (dirSet.contains(fd)) {
 				return Errors.EISDIR;
 			}
-			RandomAccessFile writeFile = fdFileMap.get(fd);
-			long start = 0;
+			OpenFile writeFile = fdFileMap.get(fd);
+			long growth = 0;
 			try {
-				start = writeFile.getFilePointer();
-
-			} catch (IOException e1) {
-				e1.printStackTrace();
-			}
-			long writeLen = start + bufLen;
-			long origLen = 0;
-			try {
-				origLen = writeFile.length();
+				growth = writeFile.growth(bufLen);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
-			if (writeLen > origLen) {
-				synchronized (cache) {
-					if (!cache.incrCacheSize(writeLen - origLen)) {
-						if (!cache.evict(writeLen - origLen)) {
-							return Errors.ENOMEM;
-						}
-					}
-				}
+			if (!reserve(caFile.path, growth)) {
+				return Errors.ENOMEM;
 			}
+			caFile.reserved += growth;
 			
 			try {
 				writeFile.write(buf);
@@ -449,7 +1235,7 @@ class Proxy {
 				return Errors.EISDIR;
 			}
 			
-			RandomAccessFile readFile = fdFileMap.get(fd);
+			OpenFile readFile = fdFileMap.get(fd);
 			long result = -1;
 			try {
 				result = readFile.read(buf);
@@ -474,7 +1260,7 @@ class Proxy {
 				return Errors.EBADF;
 			}
 			CacheFile caFile = cache.getFile(fd);
-			RandomAccessFile seekFile = fdFileMap.get(fd);
+			OpenFile seekFile = fdFileMap.get(fd);
 			long start = 0;
 			switch (o) {
 				case FROM_START:
@@ -529,13 +1315,14 @@ class Proxy {
 			try {
 				ret = server.unlinkOnServer(path);
 				if (ret == 0) {
-					synchronized(cache) {
-						cache.pathTimeMap.remove(path);
-						cache.pathCopyMap.remove(path);
-						CacheFile unlinkCaFile = cache.pathOrigFileMap.get(path);
-						cache.moveFromLru(unlinkCaFile);
-						cache.pathOrigFileMap.remove(path);
+					CacheShard shard = cache.shardFor(path);
+					shard.lock.lock();
+					try {
+						shard.unlinkPath(path);
 						file.delete();
+						if (cache.memTier != null) cache.memTier.remove(path);
+					} finally {
+						shard.lock.unlock();
 					}
 				}
 			} catch (Exception e) {
@@ -548,7 +1335,7 @@ class Proxy {
 		 * clientdone: close all the open files and clear memory allocation.
 		 */
 		public void clientdone() {
-			for(RandomAccessFile file : fdFileMap.values()) {
+			for(OpenFile file : fdFileMap.values()) {
 				try {
 					if (file != null) file.close();
 				} catch (Exception e) {
@@ -566,11 +1353,136 @@ class Proxy {
 			return new FileHandler();
 		}
 	}
-	public static void main(String[] args) throws IOException {
+	/**
+	 * parseOptions: parse command line arguments.
+	 * serverip serverport cachedir cachesize [name=value ...]
+	 * Options:
+	 *   policy=lru|lfu|arc|s3fifo|tinylfu      eviction policy (default lru)
+	 *   shards=N                               number of cache shards (default: cores)
+	 *   highwater=P, lowwater=P                reclaimer watermarks in percent (default 90, 75)
+	 *   mmap=true|false                        map read-only versions once and share them
+	 *   memtier=BYTES                          memory tier budget for small files (default 0, off)
+	 *   memthreshold=BYTES                     max size of a file in the memory tier (default 64K)
+	 *   promotehits=N                          disk hits before promotion to memory (default 2)
+	 *   journal=true|false                     reuse cached files across restarts (default true)
+	 *   blocksize=BYTES                        read files larger than a block on demand (default 0, off)
+	 *   delta=true|false                       upload only changed blocks on close (default true)
+	 *   window=N                               chunk requests in flight when reading a file (default 4)
+	 *   latency=MS                             round-trip time added to every server call (default 0)
+	 *   batch=N                                max version checks sent in one call (default 64, 0 off)
+	 *   batchwait=US                           time a batch of version checks waits for more (default 0)
+	 *   leases=true|false                      take read leases to serve hits without the server (default true)
+	 *   compress=true|false                    deflate chunks sent to the server when it pays (default true)
+	 *   transport=rmi|nio                      RMI, or the binary protocol over one NIO connection (default rmi)
+	 * @param args         command line arguments
+	 */
+	private static void parseOptions(String[] args) {
 		serverip = args[0];
 		serverport = args[1];
 		cacheDir = args[2];
 		cacheSize = Long.parseLong(args[3]);
+		for (int i = 4; i < args.length; i++) {
+			int eq = args[i].indexOf('=');
+			if (eq < 0) {
+				throw new IllegalArgumentException("option should be name=value: " + args[i]);
+			}
+			String name = args[i].substring(0, eq);
+			String value = args[i].substring(eq + 1);
+			switch (name) {
+				case "policy":
+					Cache.createPolicy(value, cacheSize);  // fail fast on unknown names
+					policyName = value;
+					break;
+				case "shards":
+					shardCnt = Integer.parseInt(value);
+					if (shardCnt <= 0) {
+						throw new IllegalArgumentException("shards should be positive: " + value);
+					}
+					break;
+				case "highwater":
+					highWater = Integer.parseInt(value);
+					break;
+				case "lowwater":
+					lowWater = Integer.parseInt(value);
+					break;
+				case "mmap":
+					mmapReads = Boolean.parseBoolean(value);
+					break;
+				case "memtier":
+					memTierSize = Long.parseLong(value);
+					break;
+				case "memthreshold":
+					memThreshold = Long.parseLong(value);
+					break;
+				case "promotehits":
+					promoteHits = Integer.parseInt(value);
+					break;
+				case "journal":
+					journal = Boolean.parseBoolean(value);
+					break;
+				case "blocksize":
+					blockSize = Integer.parseInt(value);
+					break;
+				case "delta":
+					deltaUploads = Boolean.parseBoolean(value);
+					break;
+				case "window":
+					fetchWindow = Integer.parseInt(value);
+					if (fetchWindow <= 0) {
+						throw new IllegalArgumentException("window should be positive: " + value);
+					}
+					break;
+				case "latency":
+					latencyMillis = Long.parseLong(value);
+					break;
+				case "batch":
+					batchSize = Integer.parseInt(value);
+					break;
+				case "batchwait":
+					batchWait = Long.parseLong(value);
+					break;
+				case "leases":
+					leases = Boolean.parseBoolean(value);
+					break;
+				case "compress":
+					Compression.enabled = Boolean.parseBoolean(value);
+					break;
+				case "transport":
+					if (!value.equals("rmi") && !value.equals("nio")) {
+						throw new IllegalArgumentException("transport should be rmi or nio: " + value);
+					}
+					transport = value;
+					break;
+				default:
+					throw new IllegalArgumentException("unknown option: " + name);
+			}
+		}
+		if (lowWater < 0 || lowWater > highWater || highWater > 100) {
+			throw new IllegalArgumentException("need 0 <= lowwater <= highwater <= 100");
+		}
+	}
+
+	/**
+	 * newClient: parse the options and make a client served in this process, as the
+	 * RPC receiver does for each connection; used by the benchmarks.
+	 * @param args         command line arguments, as for main
+	 * @return FileHandling object
+	 */
+	static FileHandling newClient(String[] args) {
+		parseOptions(args);
+		return new FileHandler();
+	}
+
+	public static void main(String[] args) throws IOException {
+		parseOptions(args);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				if (cache != null) {
+					if (cache.journal != null) cache.journal.flush();
+					System.err.println(cache.stats());
+				}
+			}
+		});
 		(new RPCreceiver(new FileHandlingFactory())).run();
 		
 	}
@@ -0,0 +1,59 @@
+/**
+ * RafFile.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.*;
+
+/**
+ * RafFile: an OpenFile backed by a private RandomAccessFile.
+ */
+public class RafFile implements OpenFile {
+
+    private RandomAccessFile raf;
+
+    /**
+     * RafFile constructor
+     * @param realPath       absolute path stored in cache
+     * @throws FileNotFoundException
+     */
+    public RafFile(String realPath) throws FileNotFoundException {
+        raf = new RandomAccessFile(realPath, "rw");
+    }
+
+    @Override
+    public int read(byte[] buf) throws IOException {
+        return raf.read(buf);
+    }
+
+    @Override
+    public void write(byte[] buf) throws IOException {
+        raf.write(buf);
+    }
+
+    @Override
+    public long growth(long len) throws IOException {
+        return Math.max(0, raf.getFilePointer() + len - raf.length());
+    }
+
+    @Override
+    public long getFilePointer() throws IOException {
+        return raf.getFilePointer();
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        raf.seek(pos);
+    }
+
+    @Override
+    public long length() throws IOException {
+        return raf.length();
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Reclaimer.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reclaimer: background thread evicting cached files off the client threads.
+ * It runs a pass whenever usage crosses the high watermark, evicting down to the low
+ * watermark, or when a stalled reservation asks for space. Shards furthest above
+ * their fair share are reclaimed first; a shard locked by a client is skipped.
+ */
+public class Reclaimer extends Thread {
+
+    private Cache cache;
+
+    private long requested;   // number of reclaim requests
+    private long completed;   // the latest request served by a finished pass
+    private long demand;      // bytes asked by stalled reservations since the last pass
+    private long lastFreed;   // bytes freed by the last pass
+
+    private long startTime = System.nanoTime();
+
+    /* counters to tune the watermarks */
+    public AtomicLong reclaimedBytes = new AtomicLong();
+    public AtomicLong reclaimedFiles = new AtomicLong();
+    public AtomicLong passCnt = new AtomicLong();
+
+    /**
+     * Reclaimer constructor
+     * @param cache       the cache to reclaim
+     */
+    public Reclaimer(Cache cache) {
+        super("cache-reclaimer");
+        this.cache = cache;
+        setDaemon(true);
+    }
+
+    /**
+     * wake: start a pass if the reclaimer is idle
+     */
+    public synchronized void wake() {
+        notifyAll();
+    }
+
+    /**
+     * reclaimAndWait: ask for space and wait until a pass started after this call ends.
+     * @param size        bytes to free beyond the hard limit
+     * @return bytes freed by that pass
+     */
+    public synchronized long reclaimAndWait(long size) {
+        long ticket = ++requested;
+        demand += Math.max(0, size);
+        notifyAll();
+        while (completed < ticket) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+        }
+        return lastFreed;
+    }
+
+    /**
+     * reclaimRate: average bytes reclaimed per second since start
+     * @return bytes per second
+     */
+    public double reclaimRate() {
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        return seconds <= 0 ? 0 : reclaimedBytes.get() / seconds;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            long ticket;
+            long want;
+            synchronized (this) {
+                while (requested == completed && cache.used.get() <= cache.highWater) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                ticket = requested;
+                want = demand;
+                demand = 0;
+            }
+            long target = Math.max(want, cache.used.get() - cache.lowWater);
+            long freed = pass(target);
+            synchronized (this) {
+                completed = ticket;
+                lastFreed = freed;
+                notifyAll();
+                if (freed == 0 && requested == completed) {
+                    // above the high watermark but everything is open; back off
+                    try {
+                        wait(100);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * pass: evict files until target bytes are freed or nothing else is evictable
+     * @param target      bytes to free
+     * @return bytes freed
+     */
+    private long pass(long target) {
+        passCnt.incrementAndGet();
+        CacheShard[] order = cache.shards.clone();
+        Arrays.sort(order, new Comparator<CacheShard>() {
+            public int compare(CacheShard a, CacheShard b) {
+                return Long.compare(b.curSize() - b.slice, a.curSize() - a.slice);
+            }
+        });
+        long freed = 0;
+        for (CacheShard shard : order) {
+            if (freed >= target) break;
+            if (!shard.lock.tryLock()) continue;
+            try {
+                while (freed < target) {
+                    long size = shard.evictOne();
+                    if (size < 0) break;
+                    freed += size;
+                    reclaimedFiles.incrementAndGet();
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        reclaimedBytes.addAndGet(freed);
+        return freed;
+    }
+}
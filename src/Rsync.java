@@ -0,0 +1,251 @@
+/**
+ * Rsync.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Rsync: rsync-style delta encoding, shared by proxy and server.
+ * The server signs the full blocks of its version, the proxy slides a rolling
+ * checksum over the new version to find those blocks at any offset, and the server
+ * rebuilds the new version from its blocks and the literal bytes in between.
+ */
+public class Rsync {
+
+    private static final int MINBLOCK = 2048;
+
+    /**
+     * blockSize: block size for a file, about the square root of its length
+     * @param length         file length
+     * @return block size
+     */
+    public static int blockSize(long length) {
+        return (int) Math.max(MINBLOCK, Math.min(1 << 20, (long) Math.sqrt((double) length)));
+    }
+
+    /**
+     * weak: rolling checksum of a block, a in the low and b in the high 16 bits
+     * @param buf            buffer
+     * @param off            block offset in the buffer
+     * @param len            block length
+     * @return checksum
+     */
+    private static int weak(byte[] buf, int off, int len) {
+        int a = 0, b = 0;
+        for (int i = 0; i < len; i++) {
+            int x = buf[off + i] & 0xff;
+            a += x;
+            b += (len - i) * x;
+        }
+        return (a & 0xffff) | (b << 16);
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * sign: compute the signatures of the full blocks of a file
+     * @param file           file to sign
+     * @param blockSize      block size
+     * @return Signatures object
+     * @throws IOException
+     */
+    public static Signatures sign(File file, int blockSize) throws IOException {
+        return sign(file, blockSize, false);
+    }
+
+    /**
+     * sign: compute the signatures of the blocks of a file
+     * @param file           file to sign
+     * @param blockSize      block size
+     * @param tail           whether to sign the short last block too
+     * @return Signatures object
+     * @throws IOException
+     */
+    public static Signatures sign(File file, int blockSize, boolean tail) throws IOException {
+        long length = file.length();
+        int count = (int) (tail ? (length + blockSize - 1) / blockSize : length / blockSize);
+        Signatures sig = new Signatures(blockSize, count);
+        sig.length = length;
+        MessageDigest md = md5();
+        byte[] block = new byte[blockSize];
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            for (int i = 0; i < count; i++) {
+                int len = (int) Math.min(blockSize, length - (long) i * blockSize);
+                input.readFully(block, 0, len);
+                sig.weak[i] = weak(block, 0, len);
+                md.update(block, 0, len);
+                sig.strong[i] = md.digest();
+            }
+        } finally {
+            input.close();
+        }
+        return sig;
+    }
+
+    /**
+     * encode: compute the delta of a new version against the signatures of a base.
+     * @param file           new version
+     * @param sig            signatures of the base version
+     * @param maxLiteral     give up once the literal bytes exceed this
+     * @return Delta object, null if more than maxLiteral bytes differ
+     * @throws IOException
+     */
+    public static Delta encode(File file, Signatures sig, long maxLiteral) throws IOException {
+        int blockSize = sig.blockSize;
+        HashMap<Integer, List<Integer>> weakMap = new HashMap<>();
+        for (int i = 0; i < sig.weak.length; i++) {
+            List<Integer> list = weakMap.get(sig.weak[i]);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                weakMap.put(sig.weak[i], list);
+            }
+            list.add(i);
+        }
+        Delta delta = new Delta();
+        delta.blockSize = blockSize;
+        delta.length = file.length();
+        int[] ops = new int[16];
+        int opCnt = 0;
+        ByteArrayOutputStream literals = new ByteArrayOutputStream();
+        int pending = 0;   // literal bytes not yet in an op
+
+        MessageDigest md = md5();
+        byte[] win = new byte[blockSize];   // ring buffer of the window
+        InputStream input = new BufferedInputStream(new FileInputStream(file));
+        try {
+            int filled = fill(input, win);
+            int start = 0;
+            int a = 0, b = 0;
+            if (filled == blockSize) {
+                int w = weak(win, 0, blockSize);
+                a = w & 0xffff;
+                b = w >>> 16;
+            }
+            while (filled == blockSize) {
+                List<Integer> candidates = weakMap.get((a & 0xffff) | (b << 16));
+                int match = -1;
+                if (candidates != null) {
+                    md.update(win, start, blockSize - start);
+                    md.update(win, 0, start);
+                    byte[] strong = md.digest();
+                    for (int index : candidates) {
+                        if (Arrays.equals(strong, sig.strong[index])) {
+                            match = index;
+                            break;
+                        }
+                    }
+                }
+                if (match >= 0) {
+                    if (pending > 0) {
+                        ops = grow(ops, opCnt);
+                        ops[opCnt++] = -pending;
+                        pending = 0;
+                    }
+                    ops = grow(ops, opCnt);
+                    ops[opCnt++] = match;
+                    start = 0;
+                    filled = fill(input, win);
+                    if (filled == blockSize) {
+                        int w = weak(win, 0, blockSize);
+                        a = w & 0xffff;
+                        b = w >>> 16;
+                    }
+                    continue;
+                }
+                // no block starts here: the oldest byte is literal, roll the window by one
+                int next = input.read();
+                int old = win[start] & 0xff;
+                literals.write(old);
+                pending++;
+                if (literals.size() > maxLiteral) return null;
+                if (next < 0) {
+                    filled--;
+                    start = (start + 1) % blockSize;
+                    break;
+                }
+                a = (a - old + next) & 0xffff;
+                b = (b - blockSize * old + a) & 0xffff;
+                win[start] = (byte) next;
+                start = (start + 1) % blockSize;
+            }
+            // the tail shorter than a block is literal
+            for (int i = 0; i < filled; i++) {
+                literals.write(win[(start + i) % blockSize]);
+                pending++;
+            }
+            if (literals.size() > maxLiteral) return null;
+            if (pending > 0) {
+                ops = grow(ops, opCnt);
+                ops[opCnt++] = -pending;
+            }
+        } finally {
+            input.close();
+        }
+        delta.ops = Arrays.copyOf(ops, opCnt);
+        delta.literals = literals.toByteArray();
+        return delta;
+    }
+
+    /**
+     * apply: rebuild a new version from a base version and a delta
+     * @param base           base version
+     * @param delta          Delta object
+     * @param out            destination of the new version
+     * @throws IOException if the delta does not fit the base
+     */
+    public static void apply(File base, Delta delta, OutputStream out) throws IOException {
+        RandomAccessFile raFile = new RandomAccessFile(base, "r");
+        try {
+            byte[] block = new byte[delta.blockSize];
+            int litPos = 0;
+            long written = 0;
+            for (int op : delta.ops) {
+                if (op >= 0) {
+                    raFile.seek((long) op * delta.blockSize);
+                    raFile.readFully(block);
+                    out.write(block);
+                    written += delta.blockSize;
+                } else {
+                    out.write(delta.literals, litPos, -op);
+                    litPos += -op;
+                    written += -op;
+                }
+            }
+            if (written != delta.length) {
+                throw new IOException("delta rebuilt " + written + " bytes, expected " + delta.length);
+            }
+        } finally {
+            raFile.close();
+        }
+    }
+
+    /**
+     * fill: read a whole window unless the stream ends
+     * @return bytes read
+     */
+    private static int fill(InputStream input, byte[] win) throws IOException {
+        int n = 0;
+        while (n < win.length) {
+            int r = input.read(win, n, win.length - n);
+            if (r < 0) break;
+            n += r;
+        }
+        return n;
+    }
+
+    private static int[] grow(int[] ops, int opCnt) {
+        return opCnt < ops.length ? ops : Arrays.copyOf(ops, ops.length * 2);
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * RttBench.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.rmi.Naming;
+import java.rmi.registry.LocateRegistry;
+import java.util.Random;
+
+/**
+ * RttBench: time to download a file into the cache against the round-trip time of
+ * the link and the window of chunk requests in flight. A local server stands in for
+ * the remote one, and LatencyServer adds the round-trip time to every call. Each
+ * run opens a file not cached yet, so the open fetches all of it, then checks its
+ * content and unlinks it.
+ *
+ * java RttBench [port] [fileMB] [rtts] [windows]
+ *   e.g. java RttBench 15470 5 0,5,20 1,4,16
+ */
+public class RttBench {
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 15470;
+        int fileSize = (args.length > 1 ? Integer.parseInt(args[1]) : 5) * 1024 * 1024;
+        String[] rtts = (args.length > 2 ? args[2] : "0,5,20").split(",");
+        String[] windows = (args.length > 3 ? args[3] : "1,4,16").split(",");
+
+        File dir = File.createTempFile("rtt-bench", "");
+        dir.delete();
+        File serverDir = new File(dir, "server");
+        File cacheDir = new File(dir, "cache");
+        serverDir.mkdirs();
+        cacheDir.mkdirs();
+        byte[] content = new byte[fileSize];
+        new Random(1).nextBytes(content);
+        Compression.enabled = false;
+
+        Server server = new Server(serverDir.getAbsolutePath());
+        LocateRegistry.createRegistry(port);
+        Naming.rebind("//127.0.0.1:" + port + "/Server", server);
+
+        byte[] buf = new byte[1024 * 1024];
+        for (String rtt : rtts) {
+            for (String window : windows) {
+                String path = "data-" + rtt + "-" + window;
+                try (FileOutputStream out = new FileOutputStream(new File(serverDir, path))) {
+                    out.write(content);
+                }
+                FileHandling client = Proxy.newClient(new String[] {"127.0.0.1", "" + port,
+                        cacheDir.getAbsolutePath(), "" + (64L << 20), "journal=false",
+                        "latency=" + rtt, "window=" + window});
+                long start = System.nanoTime();
+                int fd = client.open(path, FileHandling.OpenOption.READ);
+                double openMs = (System.nanoTime() - start) / 1e6;
+                if (fd < 0) throw new IllegalStateException("open " + path + ": " + fd);
+                int total = 0;
+                long n;
+                while ((n = client.read(fd, buf)) > 0) {
+                    for (int i = 0; i < n; i++) {
+                        if (buf[i] != content[total + i]) throw new IllegalStateException(path + " differs at " + (total + i));
+                    }
+                    total += n;
+                }
+                client.close(fd);
+                if (total != fileSize) throw new IllegalStateException(path + " read " + total + " of " + fileSize);
+                client.unlink(path);
+                System.out.printf("rttMs=%s window=%s fileBytes=%d openMs=%.1f MBps=%.1f%n",
+                        rtt, window, fileSize, openMs, fileSize / 1048576.0 / (openMs / 1000));
+            }
+        }
+        System.exit(0);
+    }
+}
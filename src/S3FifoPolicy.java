@@ -0,0 +1,146 @@
+/**
+ * S3FifoPolicy.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.util.*;
+
+/**
+ * S3FifoPolicy: three static FIFO queues.
+ * New files enter the small queue (10% of the cache); when they reach its tail they
+ * are promoted to the main queue only if they were referenced again, otherwise they
+ * are evicted and remembered in the ghost queue. A path found in the ghost queue goes
+ * straight to main. The main queue gives referenced files another lap (CLOCK style).
+ * Because a cached file is unlinked while it is reopened, a re-reference relinks it at
+ * the head of the queue it was in.
+ */
+public class S3FifoPolicy implements Cache.EvictionPolicy {
+
+    private static final int MAX_FREQ = 3;
+
+    private long smallTarget;  // byte target of the small queue
+
+    private LruList small = new LruList();
+    private LruList main = new LruList();
+
+    /* ghost queue: path as key, file size when evicted as value, eldest first */
+    private LinkedHashMap<String, Long> ghost = new LinkedHashMap<>();
+    private long ghostBytes;
+    private long ghostLimit;
+
+    /* map contains path as key, its reference counter (0 - 3) as value */
+    private HashMap<String, Integer> pathFreqMap = new HashMap<>();
+
+    /* paths whose file was last linked in the main queue */
+    private HashSet<String> mainSet = new HashSet<>();
+
+    /**
+     * S3FifoPolicy constructor
+     * @param capacity       cache size limit
+     */
+    public S3FifoPolicy(long capacity) {
+        smallTarget = capacity / 10;
+        ghostLimit = capacity - smallTarget;
+    }
+
+    @Override
+    public String name() {
+        return "s3fifo";
+    }
+
+    @Override
+    public void add(CacheFile caFile) {
+        String path = caFile.path;
+        remove(caFile);
+        Integer freq = pathFreqMap.get(path);
+        if (freq != null) {
+            pathFreqMap.put(path, Math.min(MAX_FREQ, freq + 1));
+            if (mainSet.contains(path)) {
+                main.addFirst(caFile);
+            } else {
+                small.addFirst(caFile);
+            }
+            return;
+        }
+        pathFreqMap.put(path, 0);
+        Long ghostSize = ghost.remove(path);
+        if (ghostSize != null) {
+            ghostBytes -= ghostSize;
+            mainSet.add(path);
+            main.addFirst(caFile);
+        } else {
+            small.addFirst(caFile);
+        }
+    }
+
+    @Override
+    public boolean remove(CacheFile caFile) {
+        return small.remove(caFile) || main.remove(caFile);
+    }
+
+    @Override
+    public CacheFile victim() {
+        while (small.size() > 0 || main.size() > 0) {
+            if (small.size() > 0 && (small.bytes() > smallTarget || main.size() == 0)) {
+                CacheFile last = small.removeLast();
+                if (pathFreqMap.get(last.path) > 0) {
+                    pathFreqMap.put(last.path, 0);
+                    mainSet.add(last.path);
+                    main.addFirst(last);
+                    continue;
+                }
+                pathFreqMap.remove(last.path);
+                ghost.put(last.path, last.lruSize);
+                ghostBytes += last.lruSize;
+                trimGhost();
+                return last;
+            }
+            CacheFile last = main.removeLast();
+            int freq = pathFreqMap.get(last.path);
+            if (freq > 0) {
+                pathFreqMap.put(last.path, freq - 1);
+                main.addFirst(last);
+                continue;
+            }
+            pathFreqMap.remove(last.path);
+            mainSet.remove(last.path);
+            return last;
+        }
+        return null;
+    }
+
+    /**
+     * trimGhost: keep the ghost queue within the main queue size
+     */
+    private void trimGhost() {
+        Iterator<Map.Entry<String, Long>> it = ghost.entrySet().iterator();
+        while (ghostBytes > ghostLimit && it.hasNext()) {
+            ghostBytes -= it.next().getValue();
+            it.remove();
+        }
+    }
+
+    @Override
+    public void forget(String path) {
+        pathFreqMap.remove(path);
+        mainSet.remove(path);
+        Long size = ghost.remove(path);
+        if (size != null) ghostBytes -= size;
+    }
+
+    @Override
+    public int tracked() {
+        return pathFreqMap.size() + mainSet.size() + ghost.size();
+    }
+
+    @Override
+    public int size() {
+        return small.size() + main.size();
+    }
+
+    @Override
+    public long bytes() {
+        return small.bytes() + main.bytes();
+    }
+}
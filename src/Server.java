@@ -5,6 +5,8 @@
  */
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.net.MalformedURLException;
 import java.rmi.registry.*;
 import java.rmi.server.UnicastRemoteObject;
@@ -19,6 +21,53 @@ public class Server extends UnicastRemoteObject implements ServerInf{
     /* the path string of server local storage directory */
     public String serverPath;
 
+    /* default read lease term in milliseconds */
+    public static final long LEASEMILLIS = 2000;
+
+    /* read leases granted to proxies, null if disabled */
+    public Leases leases = new Leases(LEASEMILLIS);
+
+    /* max open files kept for chunk reads and writes */
+    public static final int MAXHANDLES = 256;
+
+    /* open files shared by chunk reads and writes */
+    private HandlePool handles = new HandlePool(MAXHANDLES);
+
+    /* idle time after which an upload session is discarded */
+    public static final long UPLOADMILLIS = 60000;
+
+    /* time a replaced version stays readable by block reads already under way */
+    public static final long RETIREMILLIS = 5000;
+
+    /* versions of the files in storage */
+    private VersionTable versions;
+
+    /* metadata of the paths in storage, kept in memory */
+    private MetaCache meta;
+
+    /* upload sessions staging new versions */
+    private Uploads uploads;
+
+    /* serializes the installs, in-place writes and unlinks of files, guards retiredMap */
+    private final Object commitLock = new Object();
+
+    /* map contains path as key, the version it replaced last as value */
+    private HashMap<String, Retired> retiredMap = new HashMap<>();
+
+    /**
+     * Retired: a replaced version, open until it expires
+     */
+    private static class Retired {
+        final long version;
+        final HandlePool.Handle handle;
+        final long expiry = System.currentTimeMillis() + RETIREMILLIS;
+
+        Retired(long version, HandlePool.Handle handle) {
+            this.version = version;
+            this.handle = handle;
+        }
+    }
+
     /**
      * Server constructor
      * @param path          the path of server local storage directory
@@ -26,6 +75,10 @@ public class Server extends UnicastRemoteObject implements ServerInf{
      */
     public Server(String path) throws RemoteException{
         this.serverPath = path;
+        versions = new VersionTable(path);
+        versions.load();
+        uploads = new Uploads(path, UPLOADMILLIS);
+        meta = new MetaCache(path, versions, uploads.dir());
     }
 
     /**
@@ -51,6 +104,10 @@ public class Server extends UnicastRemoteObject implements ServerInf{
         try {
             if (!file.getCanonicalPath().startsWith(serverFile.getCanonicalPath()))
                 return false;
+            if (file.getCanonicalFile().equals(versions.logFile().getCanonicalFile()))
+                return false;
+            if (file.getCanonicalFile().toPath().startsWith(uploads.dir().getCanonicalFile().toPath()))
+                return false;
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -58,17 +115,150 @@ public class Server extends UnicastRemoteObject implements ServerInf{
     }
 
 	/**
-	 * sendModifiedTime: send the last modified time of a file with specific path
+	 * sendModifiedTime: send the version of a file with specific path
 	 * @param  path            original path of the file
-	 * @return                 last modified time
+	 * @return                 version, 0 if the file does not exist
 	 * @throws RemoteException
 	 */
     @Override
     public long sendModifiedTime(String path) throws RemoteException{
-        String realPath = createServerPath(path);
-        if (!validatePath(realPath)) return FileHandling.Errors.EPERM;
-        File file = new File(realPath);
-        return file.lastModified();
+        MetaCache.Meta m = meta.get(path);
+        if (!m.valid) return FileHandling.Errors.EPERM;
+        return m.version;
+    }
+
+    /**
+     * versionOf: the current version of a file
+     * @param path          original path
+     * @param file          file in server storage
+     * @return version, 0 if the file does not exist
+     */
+    private long versionOf(String path, File file) {
+        return versions.version(path, file, attributes(file));
+    }
+
+	/**
+	 * leaseTerm: send the term of the read leases granted with validations
+	 * @return                 lease term in milliseconds, 0 if leases are disabled
+	 * @throws RemoteException
+	 */
+    @Override
+    public long leaseTerm() throws RemoteException {
+        return (leases == null) ? 0 : leases.term;
+    }
+
+    /**
+     * grantLease: grant a read lease of a path, before its version is read
+     * @param path          original path
+     * @param holder        callback of the proxy, null if it takes no lease
+     * @return true, if granted
+     */
+    private boolean grantLease(String path, LeaseCallback holder) {
+        if (leases == null || holder == null) return false;
+        leases.grant(path, holder);
+        return true;
+    }
+
+    /**
+     * revokeLeases: revoke the read leases of a changed path
+     * @param path          original path
+     */
+    private void revokeLeases(String path) {
+        if (leases != null) leases.revoke(path);
+    }
+
+	/**
+	 * fetchIfNewer: validate the version a proxy holds and, if it is not the latest,
+	 * open the file and send its first chunk in the same call.
+	 * @param  path            original path
+	 * @param  cachedVersion   version the proxy holds, < 0 if none
+	 * @param  o               open option
+	 * @param  maxChunk        the length of the first chunk
+	 * @param  cacheSize       cache size limit, larger files get no chunk
+	 * @param  holder          lease callback of the proxy, null to take no lease
+	 * @return                 Fetch object, version < 0 if the path is invalid
+	 * @throws RemoteException
+	 */
+    @Override
+    public Fetch fetchIfNewer(String path, long cachedVersion, FileHandling.OpenOption o, int maxChunk,
+                              long cacheSize, LeaseCallback holder) throws RemoteException {
+        if (!meta.get(path).valid) return new Fetch(FileHandling.Errors.EPERM);
+        boolean leased = grantLease(path, holder);
+        MetaCache.Meta m = meta.get(path);
+        if (m.exists && cachedVersion >= 0 && m.version == cachedVersion) {
+            Fetch fetch = new Fetch(cachedVersion);
+            fetch.leased = leased;
+            return fetch;
+        }
+
+        Fetch fetch = new Fetch(0);
+        fetch.modified = true;
+        fetch.leased = leased;
+        int openResult = openOnServer(path, o);
+        m = meta.get(path);
+        fetch.version = m.version;
+        if (openResult <= 0 || !m.exists) {
+            fetch.length = (!m.exists && openResult > 0) ? FileHandling.Errors.ENOENT : openResult;
+            fetch.chunk = new Chunk((int) fetch.length);
+            return fetch;
+        }
+        fetch.length = m.length;
+        File file = new File(createServerPath(path));
+        if (fetch.length > cacheSize) return fetch;
+        // a proxy holding a stale version of a larger file patches it block by block
+        if (cachedVersion >= 0 && fetch.length > maxChunk) return fetch;
+
+        int chunkSize = (int) Math.min(maxChunk, fetch.length);
+        Chunk chunk = new Chunk(chunkSize);
+        HandlePool.Handle handle = null;
+        try {
+            handle = handles.acquire(file);
+            chunkSize = handle.read(chunk.content, 0, chunkSize, 0);
+            chunk.size = Math.max(chunkSize, 0);
+            chunk.remain = chunk.size < handle.channel.size();
+        } catch (IOException e) {
+            chunk.size = FileHandling.Errors.ENOENT;
+        } finally {
+            handles.release(handle);
+        }
+        chunk.recycle = true;
+        fetch.chunk = chunk;
+        return fetch;
+    }
+
+    /**
+     * attributes: read the attributes of a file with a single stat
+     * @param file          file in server storage
+     * @return attributes, null if it does not exist
+     */
+    private BasicFileAttributes attributes(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+	/**
+	 * validateMany: check a batch of cached versions against the latest ones
+	 * @param  paths           original paths
+	 * @param  cachedVersions  version the proxy holds for each path
+	 * @param  holder          lease callback of the proxy, null to take no leases
+	 * @return                 for each path, true if the cached version is the latest
+	 *                         (and then leased, if leases are enabled)
+	 * @throws RemoteException
+	 */
+    @Override
+    public boolean[] validateMany(List<String> paths, List<Long> cachedVersions, LeaseCallback holder)
+            throws RemoteException {
+        boolean[] valid = new boolean[paths.size()];
+        for (int i = 0; i < valid.length; i++) {
+            if (!meta.get(paths.get(i)).valid) continue;
+            grantLease(paths.get(i), holder);
+            MetaCache.Meta m = meta.get(paths.get(i));
+            valid[i] = m.exists && m.version == cachedVersions.get(i);
+        }
+        return valid;
     }
 
 	/**
@@ -82,35 +272,39 @@ public class Server extends UnicastRemoteObject implements ServerInf{
     public int openOnServer(String path, FileHandling.OpenOption o) throws RemoteException {  
         String realPath = createServerPath(path);
         File file = new File(realPath);
+        MetaCache.Meta m = meta.get(path);
+        if (!m.valid) return FileHandling.Errors.EPERM;
         String mode = "";
         switch (o) {
             case READ:
-                if (!file.exists()) {
+                if (!m.exists) {
                     return FileHandling.Errors.ENOENT;
                 }
                 mode = "r";
                 break;
             case WRITE:
-                if (!file.exists()) {
+                if (!m.exists) {
                     return FileHandling.Errors.ENOENT;
                 }
-                if (file.isDirectory()) {
+                if (m.isDir) {
                     return FileHandling.Errors.EISDIR;
                 }
                 mode = "rw";
                 break;
             case CREATE:
-                if (!file.exists()) {
+                if (!m.exists) {
                     try {
                         file.createNewFile();
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
+                    meta.invalidate(path);
+                    m = meta.get(path);
                 }
                 mode = "rw";
                 break;
             case CREATE_NEW:
-                if (file.exists()) {
+                if (m.exists) {
                     return FileHandling.Errors.EEXIST;
                 } else {
                     try {
@@ -118,6 +312,8 @@ public class Server extends UnicastRemoteObject implements ServerInf{
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
+                    meta.invalidate(path);
+                    m = meta.get(path);
                 }
                 mode = "rw";
                 break;		
@@ -125,9 +321,8 @@ public class Server extends UnicastRemoteObject implements ServerInf{
                 return FileHandling.Errors.EINVAL;
         }
 
-        int fileLen = (int) file.length();
-        if (file.isDirectory()) return Integer.MIN_VALUE;
-        return fileLen;
+        if (m.isDir) return Integer.MIN_VALUE;
+        return (int) m.length;
     }
 
 	/**
@@ -160,62 +355,48 @@ public class Server extends UnicastRemoteObject implements ServerInf{
         }
         String realPath = createServerPath(path);
         File file = new File(realPath);
-        if (!file.exists()) {
-            Chunk chunk = new Chunk(1);
-            chunk.size = FileHandling.Errors.EINVAL;
+        MetaCache.Meta m = meta.get(path);
+        if (!m.exists) {
+            Chunk chunk = new Chunk(FileHandling.Errors.EINVAL);
             return chunk;
         }
-        if (file.isDirectory()) {
-            Chunk chunk = new Chunk(1);
-            chunk.size = FileHandling.Errors.EISDIR;
+        if (m.isDir) {
+            Chunk chunk = new Chunk(FileHandling.Errors.EISDIR);
             return chunk;
         }
-        boolean remain = false;
-        int fileLen = (int) file.length();
+        int fileLen = (int) m.length;
         int readLen = fileLen - offset;
         int chunkSize = Math.min(readLen, readSize);
         // if to the end, return
-        if (readLen == 0) {
+        if (readLen <= 0) {
             Chunk chunk = new Chunk(0);
             chunk.remain = false;
             return chunk;
         }
-        // if one chunk can read to the end of the file, remain is false
-        if (readLen <= readSize) {
-            remain = false;
-        } else {
-            remain = true;
-        }
-
-        RandomAccessFile raFile = null;
-        try {
-            raFile = new RandomAccessFile(realPath, "rw");
-        } catch (Exception e) {
-            e.printStackTrace();;
-        }
 
         Chunk chunk = new Chunk(chunkSize);
-        long result = -1;
+        HandlePool.Handle handle = null;
         try {
-            raFile.seek(offset);
-            readLen = raFile.read(chunk.content);
+            // positional read on the shared handle, no seek
+            handle = handles.acquire(file);
+            readLen = handle.read(chunk.content, 0, chunkSize, offset);
+            // the pooled buffer holds stale bytes past what was read: send only those
+            // read; a short read is the end of the file, whatever the length said
+            chunk.size = Math.max(readLen, 0);
+            chunk.remain = readLen == chunkSize && offset + readLen < handle.channel.size();
         } catch (IOException e) {
             chunk.size = FileHandling.Errors.ENOENT;
             return chunk;
+        } finally {
+            handles.release(handle);
         }
-        if (readLen == -1) {
-            chunk.size = chunk.content.length;
-            chunk.remain = false;
-        }
-        else {
-            chunk.size = chunkSize;
-            chunk.remain = remain;
-        }
+        chunk.recycle = true;
         return chunk;        
     }
 
 	/**
-	 * writeOnServer: write to a file in the server storage
+	 * writeOnServer: write to a file in the server storage, in place. Proxies upload
+	 * whole versions through upload sessions instead.
 	 * @param  path            original path
      * @param  chunk           chunk received from proxy whose content is to be wrote 
 	 * @param  offset          byte offset 
@@ -227,61 +408,430 @@ public class Server extends UnicastRemoteObject implements ServerInf{
         if (chunk == null) {
             return FileHandling.Errors.EINVAL;
         }
-        String realPath = createServerPath(path);
-        File file = new File(realPath);
-        if (!file.exists()) return FileHandling.Errors.EBADF;
-        if (file.isDirectory()) return FileHandling.Errors.EISDIR;
-        RandomAccessFile raFile = null;
-        try {
-            raFile = new RandomAccessFile(file, "rw");
-        } catch (FileNotFoundException e1) {
-            e1.printStackTrace();
+        MetaCache.Meta m = meta.get(path);
+        if (!m.valid) {
+            chunk.release();
+            return FileHandling.Errors.EPERM;
         }
-		
-        if (raFile != null) {
+        File file = new File(createServerPath(path));
+        // a write in place is ordered against the installs and unlinks of the path
+        synchronized (commitLock) {
+            m = meta.get(path);
+            HandlePool.Handle handle = null;
             try {
-                // first seek to the file offset, then write from the offset
-                raFile.seek(offset);
-                raFile.write(chunk.content, 0, chunk.size);
+                if (!m.exists) return FileHandling.Errors.EBADF;
+                if (m.isDir) return FileHandling.Errors.EISDIR;
+                // positional write on the shared handle, no seek
+                handle = handles.acquire(file);
+                handle.write(chunk.content, 0, chunk.size, offset);
             } catch (IOException e) {
+                return FileHandling.Errors.EINVAL;
+            } finally {
+                handles.release(handle);
+                chunk.release();
+            }
+            versions.commit(path, file, null);
+            meta.invalidate(path);
+        }
+        revokeLeases(path);
+        return chunk.size;
+
+    }
+
+	/**
+	 * unlinkOnServer: unlink a file in server storage
+	 * @param  path            original path
+	 * @return                 0 if succeed, < 0 if failed
+	 * @throws RemoteException
+	 */
+    @Override
+    public int unlinkOnServer(String path) throws RemoteException{
+        MetaCache.Meta m = meta.get(path);
+        if (!m.valid) return FileHandling.Errors.EPERM;
+        File file = new File(createServerPath(path));
+        // under commitLock, so an unlink cannot delete a version being installed
+        synchronized (commitLock) {
+            m = meta.get(path);
+            if (!m.exists) return FileHandling.Errors.ENOENT;
+            if (m.isDir) return FileHandling.Errors.EISDIR;
+            if (!file.delete()) return FileHandling.Errors.EBUSY;
+            handles.invalidate(file);
+            versions.remove(path);
+            meta.invalidate(path);
+        }
+        revokeLeases(path);
+        return 0;
+    }
+
+	/**
+	 * sendLength: send the length of a file with specific path
+	 * @param  path            original path of the file
+	 * @return                 file length, Integer.MIN_VALUE if it is a directory, < 0 if failed
+	 * @throws RemoteException
+	 */
+    @Override
+    public long sendLength(String path) throws RemoteException {
+        MetaCache.Meta m = meta.get(path);
+        if (!m.valid) return FileHandling.Errors.EPERM;
+        if (!m.exists) return FileHandling.Errors.ENOENT;
+        if (m.isDir) return Integer.MIN_VALUE;
+        return m.length;
+    }
+
+	/**
+	 * readBlockOnServer: read a range of a file in server storage, only if the file
+	 * is still the version the proxy opened.
+	 * @param  path            original path
+	 * @param  version         version the proxy opened
+	 * @param  offset          byte offset in the file
+	 * @param  readSize        the length to read
+	 * @return                 Chunk object, size EBUSY if the version has changed
+	 * @throws RemoteException
+	 */
+    @Override
+    public Chunk readBlockOnServer(String path, long version, long offset, int readSize) throws RemoteException {
+        HandlePool.Handle handle = acquireBlock(path, version);
+        if (handle == null) {
+            MetaCache.Meta m = meta.get(path);
+            boolean exists = m.valid && m.exists && !m.isDir;
+            return new Chunk(exists ? FileHandling.Errors.EBUSY : FileHandling.Errors.ENOENT);
+        }
+        Chunk chunk = null;
+        try {
+            int chunkSize = (int) Math.max(0, Math.min(readSize, handle.channel.size() - offset));
+            chunk = new Chunk(chunkSize);
+            if (chunkSize > 0 && handle.read(chunk.content, 0, chunkSize, offset) != chunkSize) {
+                chunk.size = FileHandling.Errors.EBUSY;  // truncated meanwhile
+            }
+        } catch (IOException e) {
+            if (chunk == null) chunk = new Chunk(0);
+            chunk.size = FileHandling.Errors.EINVAL;
+        } finally {
+            handles.release(handle);
+        }
+        chunk.recycle = true;
+        return chunk;
+    }
+
+	/**
+	 * acquireBlock: get the shared channel of a version of a file for a range read.
+	 * A version replaced by a commit stays readable for RETIREMILLIS, so reads of
+	 * it already under way can finish.
+	 * @param  path            original path
+	 * @param  version         version the proxy opened
+	 * @return                 handle to give back with releaseBlock, null if the
+	 *                         version is gone
+	 */
+    HandlePool.Handle acquireBlock(String path, long version) {
+        MetaCache.Meta m = meta.get(path);
+        if (!m.valid) return null;
+        File file = new File(createServerPath(path));
+        synchronized (commitLock) {
+            m = meta.get(path);
+            if (m.exists && !m.isDir && m.version == version) {
                 try {
-                    raFile.close();
-                } catch (Exception e1) {
-                    e1.printStackTrace();
+                    return handles.acquire(file);
+                } catch (IOException e) {
+                    return null;
                 }
-                return FileHandling.Errors.EINVAL;
             }
+            Retired retired = retiredMap.get(path);
+            if (retired == null || retired.version != version) return null;
+            if (retired.expiry < System.currentTimeMillis()) {
+                retiredMap.remove(path);
+                handles.release(retired.handle);
+                return null;
+            }
+            handles.retain(retired.handle);
+            return retired.handle;
+        }
+    }
+
+    void releaseBlock(HandlePool.Handle handle) {
+        handles.release(handle);
+    }
+
+	/**
+	 * sendSignatures: send the block signatures of a file in server storage
+	 * @param  path            original path
+	 * @param  version         version the proxy holds
+	 * @param  blockSize       block size
+	 * @return                 Signatures object, null if the version is gone
+	 * @throws RemoteException
+	 */
+    @Override
+    public Signatures sendSignatures(String path, long version, int blockSize) throws RemoteException {
+        String realPath = createServerPath(path);
+        File file = new File(realPath);
+        if (!validatePath(realPath) || !file.isFile() || versionOf(path, file) != version) {
+            return null;
         }
-		
         try {
-            raFile.close();
+            return Rsync.sign(file, blockSize);
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
         }
-        return chunk.size;
+    }
 
+	/**
+	 * sendBlockHashes: send the hashes of all the blocks of the current version of a
+	 * file in server storage, for a proxy to fetch only the blocks that changed
+	 * @param  path            original path
+	 * @param  blockSize       block size
+	 * @return                 Signatures object with version and length, null if failed
+	 * @throws RemoteException
+	 */
+    @Override
+    public Signatures sendBlockHashes(String path, int blockSize) throws RemoteException {
+        String realPath = createServerPath(path);
+        File file = new File(realPath);
+        if (!validatePath(realPath) || !file.isFile() || blockSize <= 0) return null;
+        long version = versionOf(path, file);
+        try {
+            Signatures sig = Rsync.sign(file, blockSize, true);
+            if (versionOf(path, file) != version) return null;  // changed while signing
+            sig.version = version;
+            return sig;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
     }
 
 	/**
-	 * unlinkOnServer: unlink a file in server storage
+	 * patchOnServer: rebuild a file from its base version and a delta, and replace
+	 * it atomically with a rename.
 	 * @param  path            original path
-	 * @return                 0 if succeed, < 0 if failed
+	 * @param  baseVersion     version the delta was computed against
+	 * @param  delta           Delta object
+	 * @return                 the new version, EBUSY if the base is gone
 	 * @throws RemoteException
 	 */
     @Override
-    public int unlinkOnServer(String path) throws RemoteException{
+    public long patchOnServer(String path, long baseVersion, Delta delta) throws RemoteException {
+        if (delta == null) return FileHandling.Errors.EINVAL;
         String realPath = createServerPath(path);
         File file = new File(realPath);
-        if (!file.exists()) {
+        if (!validatePath(realPath) || !file.isFile()) return FileHandling.Errors.ENOENT;
+        if (versionOf(path, file) != baseVersion) return FileHandling.Errors.EBUSY;
+        File tmp = null;
+        long version;
+        try {
+            tmp = File.createTempFile(file.getName() + ".", ".patch", uploads.dir());
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+            try {
+                Rsync.apply(file, delta, out);
+            } finally {
+                out.close();
+            }
+            version = install(path, tmp, file, baseVersion);
+            if (version < 0) {
+                tmp.delete();
+                return version;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (tmp != null) tmp.delete();
+            return FileHandling.Errors.EINVAL;
+        }
+        revokeLeases(path);
+        return version;
+    }
+
+	/**
+	 * beginUpload: open an upload session. The new version is staged aside and
+	 * replaces the file only on commit, so readers see whole versions only.
+	 * @param  path            original path
+	 * @param  baseVersion     version the new version is edited from, staged
+	 *                         as a copy of it; < 0 to stage from an empty file
+	 * @return                 session id, EBUSY if the base version is gone
+	 * @throws RemoteException
+	 */
+    @Override
+    public long beginUpload(String path, long baseVersion) throws RemoteException {
+        String realPath = createServerPath(path);
+        File file = new File(realPath);
+        if (!validatePath(realPath)) return FileHandling.Errors.EPERM;
+        if (file.isDirectory()) return FileHandling.Errors.EISDIR;
+        if (baseVersion >= 0) {
+            if (!file.isFile()) return FileHandling.Errors.ENOENT;
+            if (versionOf(path, file) != baseVersion) return FileHandling.Errors.EBUSY;
+        } else if (!file.getParentFile().isDirectory()) {
             return FileHandling.Errors.ENOENT;
         }
-        if (file.isDirectory()) {
-            return FileHandling.Errors.EISDIR;
+        try {
+            Uploads.Upload upload = uploads.begin(path, file, baseVersion >= 0, baseVersion);
+            if (baseVersion >= 0 && versionOf(path, file) != baseVersion) {
+                // changed while being copied
+                uploads.discard(upload.id);
+                return FileHandling.Errors.EBUSY;
+            }
+            return upload.id;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return FileHandling.Errors.EINVAL;
         }
-        if (!file.delete()) {
-            return FileHandling.Errors.EBUSY;
+    }
+
+	/**
+	 * stageUpload: write a chunk of the new version of an upload session
+	 * @param  session         session id
+	 * @param  chunk           chunk of content
+	 * @param  offset          byte offset
+	 * @return                 bytes written, EBADF if the session is unknown
+	 * @throws RemoteException
+	 */
+    @Override
+    public int stageUpload(long session, Chunk chunk, long offset) throws RemoteException {
+        if (chunk == null || chunk.size < 0) return FileHandling.Errors.EINVAL;
+        try {
+            Uploads.Upload upload = uploads.get(session);
+            if (upload == null) return FileHandling.Errors.EBADF;
+            upload.write(chunk.content, 0, chunk.size, offset);
+            return chunk.size;
+        } catch (IOException e) {
+            return FileHandling.Errors.EINVAL;
+        } finally {
+            chunk.release();
         }
-        return 0;
+    }
+
+	/**
+	 * stageRanges: write a batch of ranges of the new version of an upload session
+	 * @param  session         session id
+	 * @param  offsets         byte offset of each range
+	 * @param  lengths         length of each range
+	 * @param  data            content of the ranges, back to back
+	 * @return                 bytes written, EBADF if the session is unknown
+	 * @throws RemoteException
+	 */
+    @Override
+    public int stageRanges(long session, long[] offsets, int[] lengths, Chunk data) throws RemoteException {
+        if (offsets == null || lengths == null || data == null || offsets.length != lengths.length) {
+            return FileHandling.Errors.EINVAL;
+        }
+        try {
+            Uploads.Upload upload = uploads.get(session);
+            if (upload == null) return FileHandling.Errors.EBADF;
+            int written = 0;
+            for (int i = 0; i < offsets.length; i++) {
+                if (lengths[i] < 0 || written + lengths[i] > data.size) return FileHandling.Errors.EINVAL;
+                upload.write(data.content, written, lengths[i], offsets[i]);
+                written += lengths[i];
+            }
+            return written;
+        } catch (IOException e) {
+            return FileHandling.Errors.EINVAL;
+        } finally {
+            data.release();
+        }
+    }
+
+	/**
+	 * commitUpload: set the length of the new version of an upload session and
+	 * install it in place of the file with an atomic rename. A session staged from
+	 * a base version commits only if the file is still that version.
+	 * @param  session         session id
+	 * @param  length          length of the new version
+	 * @return                 the new version, EBADF if the session is unknown,
+	 *                         EBUSY if the base version has changed
+	 * @throws RemoteException
+	 */
+    @Override
+    public long commitUpload(long session, long length) throws RemoteException {
+        if (length < 0) {
+            uploads.discard(session);
+            return FileHandling.Errors.EINVAL;
+        }
+        Uploads.Upload upload = uploads.get(session);
+        if (upload == null) return FileHandling.Errors.EBADF;
+        long version;
+        try {
+            upload.raFile.setLength(length);
+            upload = uploads.finish(session);
+            if (upload == null) return FileHandling.Errors.EBADF;
+            version = install(upload.path, upload.staging, upload.file, upload.baseVersion);
+        } catch (IOException e) {
+            e.printStackTrace();
+            version = FileHandling.Errors.EINVAL;
+        }
+        if (version < 0) {
+            uploads.discard(session);
+            upload.staging.delete();
+            return version;
+        }
+        revokeLeases(upload.path);
+        return version;
+    }
+
+	/**
+	 * abortUpload: discard an upload session and its staged version
+	 * @param  session         session id
+	 * @return                 0 if discarded, EBADF if the session is unknown
+	 * @throws RemoteException
+	 */
+    @Override
+    public int abortUpload(long session) throws RemoteException {
+        return uploads.discard(session) ? 0 : FileHandling.Errors.EBADF;
+    }
+
+    /**
+     * install: replace a file with a complete new version by an atomic rename. The
+     * replaced version stays readable by block reads for RETIREMILLIS.
+     * @param  path            original path
+     * @param  staged          new version, next to the file
+     * @param  file            file in server storage
+     * @param  baseVersion     version the new one is based on, < 0 to replace any
+     * @return                 the new version, EBUSY if the file is no longer the
+     *                         base version or cannot be replaced
+     */
+    private long install(String path, File staged, File file, long baseVersion) {
+        // hashed before taking commitLock, which block reads of every path wait on
+        byte[] digest = versions.digest(staged);
+        synchronized (commitLock) {
+            long previous = versionOf(path, file);
+            if (baseVersion >= 0 && previous != baseVersion) return FileHandling.Errors.EBUSY;
+            HandlePool.Handle old = null;
+            if (previous > 0 && file.isFile()) {
+                try {
+                    old = handles.acquire(file);
+                } catch (IOException e) {
+                    // nothing to keep readable
+                }
+            }
+            if (!staged.renameTo(file)) {
+                handles.release(old);
+                return FileHandling.Errors.EBUSY;
+            }
+            handles.invalidate(file);
+            retire(path, previous, old);
+            long version = versions.commit(path, file, digest);
+            meta.invalidate(path);
+            return version;
+        }
+    }
+
+    /**
+     * retire: keep a replaced version readable until it expires; the version it
+     * supersedes and other expired ones are closed. Called under commitLock.
+     * @param  path            original path
+     * @param  version         replaced version
+     * @param  handle          handle of the replaced version, may be null
+     */
+    private void retire(String path, long version, HandlePool.Handle handle) {
+        long now = System.currentTimeMillis();
+        Iterator<Retired> it = retiredMap.values().iterator();
+        while (it.hasNext()) {
+            Retired r = it.next();
+            if (r.expiry < now) {
+                it.remove();
+                handles.release(r.handle);
+            }
+        }
+        Retired superseded = (handle == null) ? retiredMap.remove(path)
+                : retiredMap.put(path, new Retired(version, handle));
+        if (superseded != null) handles.release(superseded.handle);
     }
 
     public static void main (String[] args) {
@@ -290,19 +840,50 @@ public class Server extends UnicastRemoteObject implements ServerInf{
         }
 
         int port = Integer.parseInt(args[0]);
+        Server server = null;
+        String transport = "rmi";
         try {
-            LocateRegistry.createRegistry(port);
+            server = new Server(args[1]);
         } catch (RemoteException e) {
             e.printStackTrace();
         }
+        for (int i = 2; i < args.length; i++) {
+            // lease=MS sets the read lease term, 0 disables leases
+            if (args[i].startsWith("lease=")) {
+                long term = Long.parseLong(args[i].substring("lease=".length()));
+                server.leases = (term > 0) ? new Leases(term) : null;
+            } else if (args[i].startsWith("compress=")) {
+                // compress=true|false deflates chunks sent to proxies when it pays
+                Compression.enabled = Boolean.parseBoolean(args[i].substring("compress=".length()));
+            } else if (args[i].startsWith("metacache=")) {
+                // metacache=true|false keeps path metadata in memory, or stats on every call
+                if (!Boolean.parseBoolean(args[i].substring("metacache=".length()))) {
+                    server.meta.close();
+                }
+            } else if (args[i].startsWith("transport=")) {
+                // transport=rmi|nio serves the RMI registry, or the binary protocol, on the port
+                transport = args[i].substring("transport=".length());
+                if (!transport.equals("rmi") && !transport.equals("nio")) {
+                    throw new IllegalArgumentException("transport should be rmi or nio: " + transport);
+                }
+            } else {
+                throw new IllegalArgumentException("unknown option: " + args[i]);
+            }
+        }
 
-        Server server = null;
+        if (transport.equals("nio")) {
+            try {
+                new NioServer(server, port).start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
         try {
-            server = new Server(args[1]);
+            LocateRegistry.createRegistry(port);
         } catch (RemoteException e) {
             e.printStackTrace();
         }
-
         String url = "//127.0.0.1:" + port + "/Server";
         try {
             Naming.rebind(url, server);
@@ -310,4 +891,4 @@ public class Server extends UnicastRemoteObject implements ServerInf{
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+}
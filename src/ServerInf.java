@@ -5,12 +5,22 @@
  */
 
 import java.rmi.*;
+import java.util.List;
 
 public interface ServerInf extends Remote {
 
-    // sendModifiedTime: send the last modified time of a file with specific path
+    // sendModifiedTime: send the version of a file with specific path
     public long sendModifiedTime(String path) throws RemoteException;
 
+    // fetchIfNewer: validate a cached version, sending the latest version's first chunk if it is stale
+    public Fetch fetchIfNewer(String path, long cachedVersion, FileHandling.OpenOption o, int maxChunk, long cacheSize, LeaseCallback holder) throws RemoteException;
+
+    // validateMany: check whether each of a batch of cached versions is the latest
+    public boolean[] validateMany(List<String> paths, List<Long> cachedVersions, LeaseCallback holder) throws RemoteException;
+
+    // leaseTerm: send the term of the read leases granted with validations, 0 if disabled
+    public long leaseTerm() throws RemoteException;
+
     // openOnServer: open a file with specific file in server storage
     public int openOnServer(String path, FileHandling.OpenOption o) throws RemoteException;
 
@@ -22,5 +32,35 @@ public interface ServerInf extends Remote {
 
     // unlinkOnServer: unlink a file in server storage
     public int unlinkOnServer(String path) throws RemoteException;
+
+    // sendLength: send the length of a file with specific path
+    public long sendLength(String path) throws RemoteException;
+
+    // readBlockOnServer: read a range of a specific version of a file in server storage
+    public Chunk readBlockOnServer(String path, long version, long offset, int readSize) throws RemoteException;
+
+    // sendSignatures: send the block signatures of a specific version of a file
+    public Signatures sendSignatures(String path, long version, int blockSize) throws RemoteException;
+
+    // patchOnServer: rebuild a file from its base version and a delta
+    public long patchOnServer(String path, long baseVersion, Delta delta) throws RemoteException;
+
+    // sendBlockHashes: send the hashes of all the blocks of the current version of a file
+    public Signatures sendBlockHashes(String path, int blockSize) throws RemoteException;
+
+    // beginUpload: open an upload session staging a new version of a file
+    public long beginUpload(String path, long baseVersion) throws RemoteException;
+
+    // stageUpload: write a chunk of the new version of an upload session
+    public int stageUpload(long session, Chunk chunk, long offset) throws RemoteException;
+
+    // stageRanges: write a batch of ranges of the new version of an upload session
+    public int stageRanges(long session, long[] offsets, int[] lengths, Chunk data) throws RemoteException;
+
+    // commitUpload: set the length of the new version of an upload session and install it atomically
+    public long commitUpload(long session, long length) throws RemoteException;
+
+    // abortUpload: discard an upload session
+    public int abortUpload(long session) throws RemoteException;
     
 }
\ No newline at end of file
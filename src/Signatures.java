@@ -0,0 +1,33 @@
+/**
+ * Signatures.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.Serializable;
+
+/**
+ * Signatures: weak rolling and strong checksums of the blocks of a file version.
+ * Signatures for delta uploads cover full blocks only; block hashes for delta
+ * downloads also cover the short last block.
+ */
+public class Signatures implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    public int blockSize;     // block size
+    public int[] weak;        // rolling checksum of each block
+    public byte[][] strong;   // MD5 of each block
+    public long version;      // version signed
+    public long length;       // file length
+
+    /**
+     * Signatures constructor
+     * @param blockSize      block size
+     * @param count          number of blocks
+     */
+    public Signatures(int blockSize, int count) {
+        this.blockSize = blockSize;
+        weak = new int[count];
+        strong = new byte[count][];
+    }
+}
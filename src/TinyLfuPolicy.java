@@ -0,0 +1,183 @@
+/**
+ * TinyLfuPolicy.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.util.*;
+
+/**
+ * TinyLfuPolicy: W-TinyLFU.
+ * New files enter a small LRU window (1% of the cache). The main area is a segmented
+ * LRU of a probation and a protected segment (80% of the main area). When the window
+ * overflows, its least recently used file competes with the probation victim, and the
+ * one with the lower estimated frequency is evicted. Frequencies are estimated with a
+ * count-min sketch that is halved periodically so old popularity fades.
+ */
+public class TinyLfuPolicy implements Cache.EvictionPolicy {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private long windowTarget;     // byte target of the window
+    private long protectedTarget;  // byte target of the protected segment
+    private long mainTarget;       // byte target of the main area
+
+    private LruList window = new LruList();
+    private LruList probation = new LruList();
+    private LruList protect = new LruList();
+
+    /* map contains path as key, the segment its file was last linked in as value */
+    private HashMap<String, Integer> pathSegmentMap = new HashMap<>();
+
+    private FrequencySketch sketch = new FrequencySketch(1024);
+
+    /**
+     * TinyLfuPolicy constructor
+     * @param capacity       cache size limit
+     */
+    public TinyLfuPolicy(long capacity) {
+        windowTarget = Math.max(1, capacity / 100);
+        mainTarget = capacity - windowTarget;
+        protectedTarget = mainTarget * 8 / 10;
+    }
+
+    @Override
+    public String name() {
+        return "tinylfu";
+    }
+
+    @Override
+    public void add(CacheFile caFile) {
+        String path = caFile.path;
+        sketch.increment(path);
+        remove(caFile);
+        Integer segment = pathSegmentMap.get(path);
+        if (segment == null || segment == WINDOW) {
+            pathSegmentMap.put(path, WINDOW);
+            window.addFirst(caFile);
+            return;
+        }
+        // any re-reference in the main area is protected
+        pathSegmentMap.put(path, PROTECTED);
+        protect.addFirst(caFile);
+        while (protect.bytes() > protectedTarget && protect.size() > 1) {
+            CacheFile demoted = protect.removeLast();
+            pathSegmentMap.put(demoted.path, PROBATION);
+            probation.addFirst(demoted);
+        }
+    }
+
+    @Override
+    public boolean remove(CacheFile caFile) {
+        return window.remove(caFile) || probation.remove(caFile) || protect.remove(caFile);
+    }
+
+    @Override
+    public CacheFile victim() {
+        // the window overflows into the main area as long as it has room; files
+        // compete for admission only once it is full
+        while (window.size() > 1 && window.bytes() > windowTarget
+                && probation.bytes() + protect.bytes() + window.peekLast().lruSize <= mainTarget) {
+            CacheFile moved = window.removeLast();
+            pathSegmentMap.put(moved.path, PROBATION);
+            probation.addFirst(moved);
+        }
+        CacheFile mainVictim = probation.size() > 0 ? probation.peekLast() : protect.peekLast();
+        if (window.size() > 0 && (window.bytes() > windowTarget || mainVictim == null)) {
+            CacheFile candidate = window.removeLast();
+            if (mainVictim != null && sketch.frequency(candidate.path) > sketch.frequency(mainVictim.path)) {
+                // admit the candidate into the main area, evict the main victim instead
+                pathSegmentMap.put(candidate.path, PROBATION);
+                probation.addFirst(candidate);
+                remove(mainVictim);
+                pathSegmentMap.remove(mainVictim.path);
+                return mainVictim;
+            }
+            pathSegmentMap.remove(candidate.path);
+            return candidate;
+        }
+        if (mainVictim == null) return null;
+        remove(mainVictim);
+        pathSegmentMap.remove(mainVictim.path);
+        return mainVictim;
+    }
+
+    @Override
+    public void forget(String path) {
+        // the sketch cannot drop one key; its count fades with the periodic halving
+        pathSegmentMap.remove(path);
+    }
+
+    @Override
+    public int tracked() {
+        return pathSegmentMap.size();
+    }
+
+    @Override
+    public int size() {
+        return window.size() + probation.size() + protect.size();
+    }
+
+    @Override
+    public long bytes() {
+        return window.bytes() + probation.bytes() + protect.bytes();
+    }
+
+    /**
+     * FrequencySketch: a 4-row count-min sketch with 4-bit saturating counters.
+     * After every (10 * width) increments all the counters are halved.
+     */
+    private static class FrequencySketch {
+
+        private static final int DEPTH = 4;
+        private static final int[] SEEDS = {0x97cb3127, 0xb4b82e39, 0x2c1b3c6d, 0x9e3779b9};
+
+        private byte[][] table;
+        private int mask;
+        private int additions;
+        private int sampleSize;
+
+        FrequencySketch(int width) {
+            int w = Integer.highestOneBit(Math.max(16, width));
+            table = new byte[DEPTH][w];
+            mask = w - 1;
+            sampleSize = 10 * w;
+        }
+
+        private int index(String key, int row) {
+            int h = key.hashCode() * SEEDS[row];
+            h ^= h >>> 16;
+            return h & mask;
+        }
+
+        int frequency(String key) {
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < DEPTH; i++) {
+                min = Math.min(min, table[i][index(key, i)]);
+            }
+            return min;
+        }
+
+        void increment(String key) {
+            int min = frequency(key);
+            if (min >= 15) return;
+            for (int i = 0; i < DEPTH; i++) {
+                int idx = index(key, i);
+                // conservative update: only raise the counters that hold the minimum
+                if (table[i][idx] == min) {
+                    table[i][idx]++;
+                }
+            }
+            if (++additions >= sampleSize) {
+                for (byte[] row : table) {
+                    for (int j = 0; j < row.length; j++) {
+                        row[j] >>= 1;
+                    }
+                }
+                additions /= 2;
+            }
+        }
+    }
+}
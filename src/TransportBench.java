@@ -0,0 +1,131 @@
+/**
+ * TransportBench.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.rmi.Naming;
+import java.rmi.registry.LocateRegistry;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TransportBench: loopback comparison of the RMI and NIO transports. Starts one
+ * server on a temp directory behind both, then has a number of threads make small
+ * calls (sendModifiedTime) and block reads (readBlockOnServer) through each for a
+ * fixed time, and prints calls per second, mean latency and read throughput.
+ * Compression is off so block reads take the zero-copy path of the NIO server.
+ *
+ * java TransportBench [port] [threads] [seconds] [blockSize]
+ */
+public class TransportBench {
+
+    private static final long FILESIZE = 16 * 1024 * 1024;
+
+    private interface Op {
+        long run(ServerInf server, Random random) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 15440;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 5;
+        final int blockSize = args.length > 3 ? Integer.parseInt(args[3]) : 64 * 1024;
+
+        File dir = File.createTempFile("transport-bench", "");
+        dir.delete();
+        dir.mkdirs();
+        File data = new File(dir, "data");
+        byte[] buf = new byte[1024 * 1024];
+        new Random(1).nextBytes(buf);
+        try (FileOutputStream out = new FileOutputStream(data)) {
+            for (long n = 0; n < FILESIZE; n += buf.length) out.write(buf);
+        }
+        Compression.enabled = false;
+
+        Server server = new Server(dir.getAbsolutePath());
+        LocateRegistry.createRegistry(port);
+        Naming.rebind("//127.0.0.1:" + port + "/Server", server);
+        new NioServer(server, port + 1).start();
+        ServerInf rmi = (ServerInf) Naming.lookup("//127.0.0.1:" + port + "/Server");
+        ServerInf nio = NioClient.connect("127.0.0.1", port + 1);
+        final long version = rmi.sendModifiedTime("data");
+
+        Op small = new Op() {
+            @Override
+            public long run(ServerInf s, Random random) throws Exception {
+                s.sendModifiedTime("data");
+                return 0;
+            }
+        };
+        Op block = new Op() {
+            @Override
+            public long run(ServerInf s, Random random) throws Exception {
+                long offset = (long) random.nextInt((int) (FILESIZE / blockSize)) * blockSize;
+                Chunk chunk = s.readBlockOnServer("data", version, offset, blockSize);
+                if (chunk.size != blockSize) throw new IOException("short block: " + chunk.size);
+                chunk.release();
+                return blockSize;
+            }
+        };
+
+        System.out.printf("threads=%d seconds=%d blockSize=%d%n", threads, seconds, blockSize);
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up both transports
+            boolean report = round == 1;
+            for (String name : new String[] {"rmi", "nio"}) {
+                ServerInf s = name.equals("rmi") ? rmi : nio;
+                run(name + " small", s, small, threads, report ? seconds : 1, report);
+                run(name + " block", s, block, threads, report ? seconds : 1, report);
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * run: repeat an op from many threads for a while and print its rate
+     * @param label          name printed
+     * @param server         transport under test
+     * @param op             call made
+     * @param threads        concurrent callers
+     * @param seconds        duration
+     * @param report         print the result
+     */
+    private static void run(String label, final ServerInf server, final Op op, int threads,
+                            long seconds, boolean report) throws InterruptedException {
+        final long deadline = System.nanoTime() + seconds * 1000000000L;
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final Random random = new Random(t);
+            new Thread(label) {
+                @Override
+                public void run() {
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            long start = System.nanoTime();
+                            bytes.addAndGet(op.run(server, random));
+                            nanos.addAndGet(System.nanoTime() - start);
+                            calls.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        if (!report) return;
+        long n = calls.get();
+        System.out.printf("%-10s calls/s=%-9d meanUs=%-8.1f MB/s=%.1f%n", label, n / seconds,
+                n == 0 ? 0 : nanos.get() / 1e3 / n, bytes.get() / 1e6 / seconds);
+    }
+}
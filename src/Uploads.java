@@ -0,0 +1,185 @@
+/**
+ * Uploads.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads: upload sessions of the server. A session stages the new version of a
+ * file in a private staging directory of the storage (on the same file system, so
+ * the commit is a rename), starting empty or as a copy of the version the proxy
+ * edited. Staging files are not paths of the storage: no proxy can see, open or
+ * unlink them, and those left by a crash are deleted when the server starts.
+ * Ranges are written into the staging file only, so readers never see a version
+ * before it is committed. A session idle for longer than idleMillis is taken as
+ * abandoned and discarded by the next begin.
+ */
+public class Uploads {
+
+    /**
+     * Upload: one upload session
+     */
+    public static class Upload {
+        final long id;
+        final String path;          // original path
+        final File file;            // file the session replaces on commit
+        final File staging;         // new version being written
+        final long baseVersion;     // version the staging file started from, < 0 if empty
+        final RandomAccessFile raFile;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        Upload(long id, String path, File file, File staging, long baseVersion) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.file = file;
+            this.staging = staging;
+            this.baseVersion = baseVersion;
+            this.raFile = new RandomAccessFile(staging, "rw");
+        }
+
+        /**
+         * write: write a range of the new version
+         * @param buf        source buffer
+         * @param off        offset in the buffer
+         * @param len        bytes to write
+         * @param position   byte offset in the file
+         * @throws IOException
+         */
+        public void write(byte[] buf, int off, int len, long position) throws IOException {
+            FileChannel channel = raFile.getChannel();
+            ByteBuffer bb = ByteBuffer.wrap(buf, off, len);
+            while (bb.hasRemaining()) {
+                channel.write(bb, position + len - bb.remaining());
+            }
+        }
+    }
+
+    public static final String STAGING_NAME = ".staging";
+
+    private File dir;
+    private long idleMillis;
+    private AtomicLong nextId = new AtomicLong();
+
+    /* map contains session id as key, its Upload as value */
+    private ConcurrentHashMap<Long, Upload> uploadMap = new ConcurrentHashMap<>();
+
+    /**
+     * Uploads constructor: create the staging directory, emptied of what a previous
+     * run left in it
+     * @param serverDir      the server storage directory
+     * @param idleMillis     idle time after which a session is discarded
+     */
+    public Uploads(String serverDir, long idleMillis) {
+        this.dir = new File(serverDir, STAGING_NAME);
+        this.idleMillis = idleMillis;
+        dir.mkdirs();
+        File[] leftovers = dir.listFiles();
+        if (leftovers != null) {
+            for (File f : leftovers) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * dir: the staging directory, which is not a directory of the storage
+     * @return staging directory
+     */
+    public File dir() {
+        return dir;
+    }
+
+    /**
+     * begin: open a session with its staging file
+     * @param path           original path
+     * @param file           file in server storage
+     * @param copyBase       start from a copy of the file instead of an empty file
+     * @param baseVersion    version of the file copied, < 0 if empty
+     * @return the session
+     * @throws IOException if the staging file cannot be made
+     */
+    public Upload begin(String path, File file, boolean copyBase, long baseVersion) throws IOException {
+        sweep();
+        File staging = File.createTempFile(file.getName() + ".", ".upload", dir);
+        try {
+            if (copyBase) {
+                Files.copy(file.toPath(), staging.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Upload upload = new Upload(nextId.incrementAndGet(), path, file, staging, baseVersion);
+            uploadMap.put(upload.id, upload);
+            return upload;
+        } catch (IOException e) {
+            staging.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * get: find an open session
+     * @param id             session id
+     * @return the session, null if unknown, committed or discarded
+     */
+    public Upload get(long id) {
+        Upload upload = uploadMap.get(id);
+        if (upload != null) upload.lastUsed = System.currentTimeMillis();
+        return upload;
+    }
+
+    /**
+     * finish: close a session for commit; its staging file is left to the caller
+     * @param id             session id
+     * @return the session, null if unknown or already finished
+     * @throws IOException if the staging file cannot be closed
+     */
+    public Upload finish(long id) throws IOException {
+        Upload upload = uploadMap.remove(id);
+        if (upload != null) upload.raFile.close();
+        return upload;
+    }
+
+    /**
+     * discard: close a session and delete its staging file
+     * @param id             session id
+     * @return true, if the session was open
+     */
+    public boolean discard(long id) {
+        Upload upload = uploadMap.remove(id);
+        if (upload == null) return false;
+        discard(upload);
+        return true;
+    }
+
+    private static void discard(Upload upload) {
+        try {
+            upload.raFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        upload.staging.delete();
+    }
+
+    /**
+     * sweep: discard the sessions idle for too long
+     */
+    private void sweep() {
+        long expired = System.currentTimeMillis() - idleMillis;
+        Iterator<Upload> it = uploadMap.values().iterator();
+        while (it.hasNext()) {
+            Upload upload = it.next();
+            if (upload.lastUsed < expired && uploadMap.remove(upload.id, upload)) {
+                discard(upload);
+            }
+        }
+    }
+}
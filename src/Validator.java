@@ -0,0 +1,161 @@
+/**
+ * Validator.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Validator: background thread coalescing the version checks of concurrent opens.
+ * Checks queue up while a batch is on the wire and go out together in the next
+ * validateMany call, up to maxBatch at a time. With a positive wait, the thread
+ * also holds a batch open that long for more checks to join.
+ */
+public class Validator extends Thread {
+
+    /* batch size histogram buckets: 1, 2-3, 4-7, ..., 128 and more */
+    private static final int BUCKETS = 8;
+
+    private ServerInf server;
+    private LeaseCallback holder;
+    private int maxBatch;
+    private long waitNanos;
+
+    private LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+
+    /* validations, batches sent, batches per size bucket and validation latency */
+    public AtomicLong validateCnt = new AtomicLong();
+    public AtomicLong batchCnt = new AtomicLong();
+    public AtomicLongArray batchSizes = new AtomicLongArray(BUCKETS);
+    public AtomicLong validateNanos = new AtomicLong();
+    public AtomicLong maxValidateNanos = new AtomicLong();
+
+    /**
+     * Request: a version check waiting for its batch
+     */
+    private static class Request {
+        final String path;
+        final long version;
+        final long startTime = System.nanoTime();
+        final CountDownLatch done = new CountDownLatch(1);
+        boolean valid;
+        RemoteException error;
+
+        Request(String path, long version) {
+            this.path = path;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Validator constructor
+     * @param server         connection used for the batches
+     * @param holder         lease callback taking the leases of valid versions, or null
+     * @param maxBatch       max checks in one call
+     * @param waitMicros     time a batch waits for more checks, 0 to send at once
+     */
+    public Validator(ServerInf server, LeaseCallback holder, int maxBatch, long waitMicros) {
+        super("validation-coalescer");
+        this.server = server;
+        this.holder = holder;
+        this.maxBatch = maxBatch;
+        this.waitNanos = waitMicros * 1000;
+        setDaemon(true);
+    }
+
+    /**
+     * validate: check whether a cached version is still the latest on server
+     * @param path           original path
+     * @param version        version the cache holds
+     * @return true, if up-to-date (and leased, if there is a holder)
+     * @throws RemoteException if the batch call failed
+     */
+    public boolean validate(String path, long version) throws RemoteException {
+        Request request = new Request(path, version);
+        queue.add(request);
+        try {
+            request.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("interrupted while validating " + path);
+        }
+        long nanos = System.nanoTime() - request.startTime;
+        validateCnt.incrementAndGet();
+        validateNanos.addAndGet(nanos);
+        long max = maxValidateNanos.get();
+        while (nanos > max && !maxValidateNanos.compareAndSet(max, nanos)) {
+            max = maxValidateNanos.get();
+        }
+        if (request.error != null) throw request.error;
+        return request.valid;
+    }
+
+    @Override
+    public void run() {
+        List<Request> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + waitNanos;
+                while (batch.size() < maxBatch) {
+                    Request next = (waitNanos > 0)
+                            ? queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+                            : queue.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            send(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * send: validate a batch in one call and wake its requests
+     * @param batch          requests
+     */
+    private void send(List<Request> batch) {
+        List<String> paths = new ArrayList<>(batch.size());
+        List<Long> versions = new ArrayList<>(batch.size());
+        for (Request r : batch) {
+            paths.add(r.path);
+            versions.add(r.version);
+        }
+        batchCnt.incrementAndGet();
+        batchSizes.incrementAndGet(Math.min(BUCKETS - 1, 31 - Integer.numberOfLeadingZeros(batch.size())));
+        try {
+            boolean[] valid = server.validateMany(paths, versions, holder);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).valid = valid[i];
+            }
+        } catch (RemoteException e) {
+            for (Request r : batch) r.error = e;
+        }
+        for (Request r : batch) {
+            r.done.countDown();
+        }
+    }
+
+    /**
+     * stats: batch size distribution and validation latency
+     * @return a one-line summary
+     */
+    public String stats() {
+        StringBuilder sizes = new StringBuilder();
+        for (int i = 0; i < BUCKETS; i++) {
+            if (i > 0) sizes.append(',');
+            sizes.append(1 << i).append(i == BUCKETS - 1 ? "+" : "").append(':').append(batchSizes.get(i));
+        }
+        long cnt = validateCnt.get();
+        return String.format("validations=%d batches=%d batchSizes=%s validateUs=%.1f maxValidateUs=%d",
+                cnt, batchCnt.get(), sizes, cnt == 0 ? 0 : validateNanos.get() / 1e3 / cnt,
+                maxValidateNanos.get() / 1000);
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * VersionBench.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * VersionBench: compares the server's version numbers with file mtimes as the
+ * freshness check a proxy relies on, on a temp directory:
+ * 1. a burst of commits of different contents, as fast as they go; every commit
+ *    must get a new version, while mtimes repeat within a clock tick and would hide
+ *    a write from a proxy validating in between;
+ * 2. the writer validating its own commit, which should be a hit;
+ * 3. touches of the file with no content change, which should keep the version.
+ *
+ * java VersionBench [commits] [touches]
+ */
+public class VersionBench {
+
+    public static void main(String[] args) throws Exception {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int touches = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        File dir = Files.createTempDirectory("version-bench").toFile();
+        File data = new File(dir, "data");
+        try (FileOutputStream out = new FileOutputStream(data)) {
+            out.write(new byte[4096]);
+        }
+        Server server = new Server(dir.getAbsolutePath());
+        List<String> paths = Collections.singletonList("data");
+
+        // 1 and 2: a burst of commits, each validated by the writer right after
+        HashSet<Long> versions = new HashSet<>();
+        HashSet<Long> mtimes = new HashSet<>();
+        int selfHits = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < commits; i++) {
+            long session = server.beginUpload("data", -1);
+            Chunk chunk = new Chunk(4096);
+            for (int j = 0; j < 4096; j++) chunk.content[j] = (byte) (i + j);
+            server.stageUpload(session, chunk, 0);
+            long version = server.commitUpload(session, 4096);
+            versions.add(version);
+            mtimes.add(data.lastModified());
+            List<Long> cached = new ArrayList<>();
+            cached.add(version);
+            if (server.validateMany(paths, cached, null)[0]) selfHits++;
+        }
+        double commitUs = (System.nanoTime() - start) / 1e3 / commits;
+        System.out.printf("commits=%d commitUs=%.1f distinctVersions=%d distinctMtimes=%d "
+                + "writesHiddenByMtime=%d writerHits=%d spuriousRefetches=%d%n",
+                commits, commitUs, versions.size(), mtimes.size(), commits - mtimes.size(),
+                selfHits, commits - selfHits);
+
+        // 3: touches keep the version, each costs one hash of the file
+        long before = server.sendModifiedTime("data");
+        int changed = 0;
+        long t = data.lastModified();
+        start = System.nanoTime();
+        for (int i = 0; i < touches; i++) {
+            data.setLastModified(t + 1000 * (i + 1));
+            if (server.sendModifiedTime("data") != before) changed++;
+        }
+        double touchUs = (System.nanoTime() - start) / 1e3 / touches;
+        System.out.printf("touches=%d versionChanges=%d mtimeChanges=%d touchUs=%.1f%n",
+                touches, changed, touches, touchUs);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,339 @@
+/**
+ * VersionTable.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * VersionTable: version numbers of the files in server storage. A version comes
+ * from one counter that only goes up: every committed write or unlink takes the
+ * next number, so two writes in the same clock tick still get different versions.
+ * Each version is recorded with the mtime, length and MD5 of the content it
+ * names. A file changed behind the server's back shows a different mtime or length
+ * and gets a new version, unless its content hashes the same (a touch, or a
+ * restore of the same bytes), which keeps the version.
+ *
+ * The table lives in an append-only log in the storage directory. Each record is
+ * a SET (path, version, mtime, length, digest), a DEL (path) or a RESERVE (upper
+ * bound of the versions that may be handed out). RESERVE records are forced to disk
+ * before a version under their bound is used, so a crash that loses buffered
+ * records never hands out a version twice. A fresh log starts counting at the
+ * current time in microseconds, so a lost log does not reuse versions either.
+ */
+public class VersionTable {
+
+    public static final String LOG_NAME = ".versions";
+
+    private static final byte SET = 1;
+    private static final byte DEL = 2;
+    private static final byte RESERVE = 3;
+
+    /* versions reserved by one RESERVE record */
+    private static final long RESERVEBLOCK = 4096;
+
+    /**
+     * Entry: the version of a path and the state of the file it names
+     */
+    private static class Entry {
+        long version;
+        long mtime;
+        long length;
+        byte[] digest;   // MD5 of the content, null if unknown (directory, in-place write)
+    }
+
+    private File file;
+    private FileOutputStream fileOut;
+    private DataOutputStream out;
+    private int appended;   // records written since the last compaction
+    private long next;      // next version to hand out
+    private long reserved;  // versions below this are reserved on disk
+
+    /* map contains path as key, its Entry as value */
+    private HashMap<String, Entry> entryMap = new HashMap<>();
+
+    /* versions handed out, and files hashed to tell a touch from a change */
+    public long bumpCnt;
+    public long hashCnt;
+
+    /**
+     * VersionTable constructor
+     * @param serverDir      the server storage directory
+     */
+    public VersionTable(String serverDir) {
+        file = new File(serverDir, LOG_NAME);
+    }
+
+    /**
+     * logFile: the log, which is not a file of the storage
+     * @return log file
+     */
+    public File logFile() {
+        return file;
+    }
+
+    /**
+     * load: replay the log, compact it and open it for appending.
+     * A torn record at the end (e.g. after a crash) ends the replay.
+     */
+    public synchronized void load() {
+        next = System.currentTimeMillis() * 1000;
+        if (file.exists()) {
+            next = 1;
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                while (true) {
+                    byte op = in.readByte();
+                    if (op == RESERVE) {
+                        next = Math.max(next, in.readLong());
+                        continue;
+                    }
+                    String path = in.readUTF();
+                    if (op == SET) {
+                        Entry e = new Entry();
+                        e.version = in.readLong();
+                        e.mtime = in.readLong();
+                        e.length = in.readLong();
+                        int n = in.readByte();
+                        if (n > 0) {
+                            e.digest = new byte[n];
+                            in.readFully(e.digest);
+                        }
+                        entryMap.put(path, e);
+                        next = Math.max(next, e.version + 1);
+                    } else {
+                        entryMap.remove(path);
+                    }
+                }
+            } catch (EOFException e) {
+                // end of log
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                try {
+                    if (in != null) in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        reserved = next;
+        compact();
+        Thread flusher = new Thread("version-log-flusher") {
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    flush();
+                }
+            }
+        };
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * version: the current version of a file, noticing changes made outside the server
+     * @param path           original path
+     * @param realFile       file in server storage
+     * @param attrs          attributes of the file just read, null if it does not exist
+     * @return version, 0 if the file does not exist
+     */
+    public long version(String path, File realFile, BasicFileAttributes attrs) {
+        synchronized (this) {
+            Entry e = entryMap.get(path);
+            if (attrs == null) {
+                if (e != null) remove(path);
+                return 0;
+            }
+            if (e != null && e.mtime == attrs.lastModifiedTime().toMillis() && e.length == attrs.size()) {
+                return e.version;
+            }
+        }
+        // new, or changed outside the server: hashed outside the lock
+        byte[] digest = attrs.isRegularFile() ? digest(realFile) : null;
+        synchronized (this) {
+            Entry e = entryMap.get(path);
+            long mtime = attrs.lastModifiedTime().toMillis();
+            if (e != null && e.mtime == mtime && e.length == attrs.size()) {
+                return e.version;  // recorded meanwhile
+            }
+            if (e != null && digest != null && e.length == attrs.size() && Arrays.equals(digest, e.digest)) {
+                // touched or restored, same content
+                e.mtime = mtime;
+                append(path, e);
+                return e.version;
+            }
+            return set(path, mtime, attrs.size(), digest);
+        }
+    }
+
+    /**
+     * commit: give a new version to a file whose content the server just replaced
+     * @param path           original path
+     * @param realFile       file in server storage
+     * @param digest         MD5 of the new content, hashed by the caller before it
+     *                       installs the file, to keep the version across touches;
+     *                       null for writes in place, which change it again soon
+     * @return the new version
+     */
+    public synchronized long commit(String path, File realFile, byte[] digest) {
+        return set(path, realFile.lastModified(), realFile.length(), digest);
+    }
+
+    /**
+     * remove: forget a path unlinked from server storage; if it is created again,
+     * its version comes from the counter and differs from all before
+     * @param path           original path
+     */
+    public synchronized void remove(String path) {
+        if (entryMap.remove(path) == null) return;
+        try {
+            out.writeByte(DEL);
+            out.writeUTF(path);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        appended();
+    }
+
+    /**
+     * set: record the next version of a path
+     * @return the version
+     */
+    private long set(String path, long mtime, long length, byte[] digest) {
+        if (next >= reserved) reserve();
+        Entry e = new Entry();
+        e.version = next++;
+        e.mtime = mtime;
+        e.length = length;
+        e.digest = digest;
+        entryMap.put(path, e);
+        append(path, e);
+        bumpCnt++;
+        return e.version;
+    }
+
+    /**
+     * reserve: reserve the next block of versions in the log, on disk before use
+     */
+    private void reserve() {
+        reserved = next + RESERVEBLOCK;
+        try {
+            out.writeByte(RESERVE);
+            out.writeLong(reserved);
+            out.flush();
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void append(String path, Entry e) {
+        try {
+            writeEntry(out, path, e);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        appended();
+    }
+
+    private static void writeEntry(DataOutputStream out, String path, Entry e) throws IOException {
+        out.writeByte(SET);
+        out.writeUTF(path);
+        out.writeLong(e.version);
+        out.writeLong(e.mtime);
+        out.writeLong(e.length);
+        out.writeByte(e.digest == null ? 0 : e.digest.length);
+        if (e.digest != null) out.write(e.digest);
+    }
+
+    /**
+     * digest: MD5 of the content of a file
+     * @param realFile       file in server storage, or a staged version of one
+     * @return digest, null if it cannot be read
+     */
+    public byte[] digest(File realFile) {
+        byte[] buf = BufferPool.get(64 * 1024);
+        InputStream in = null;
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            in = new FileInputStream(realFile);
+            int n;
+            while ((n = in.read(buf, 0, 64 * 1024)) > 0) {
+                md5.update(buf, 0, n);
+            }
+            synchronized (this) {
+                hashCnt++;
+            }
+            return md5.digest();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            return null;
+        } finally {
+            BufferPool.put(buf);
+            try {
+                if (in != null) in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * appended: compact once the log is four times larger than the live records
+     */
+    private void appended() {
+        if (++appended > 4 * entryMap.size() + 1024) {
+            compact();
+        }
+    }
+
+    /**
+     * flush: push buffered records to the file
+     */
+    public synchronized void flush() {
+        try {
+            if (out != null) out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * compact: rewrite the log with the reservation and the live records only, then
+     * replace it atomically with a rename.
+     */
+    private void compact() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            if (out != null) out.close();
+            FileOutputStream tmpFile = new FileOutputStream(tmp);
+            DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(tmpFile));
+            tmpOut.writeByte(RESERVE);
+            tmpOut.writeLong(reserved);
+            for (Map.Entry<String, Entry> e : entryMap.entrySet()) {
+                writeEntry(tmpOut, e.getKey(), e.getValue());
+            }
+            tmpOut.flush();
+            tmpFile.getFD().sync();
+            tmpOut.close();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("cannot replace " + file);
+            }
+            fileOut = new FileOutputStream(file, true);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            appended = 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
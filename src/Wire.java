@@ -0,0 +1,334 @@
+/**
+ * Wire.java
+ * @author Jiayue Mao
+ * Andrew ID: jiayuem
+ */
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+
+/**
+ * Wire: frames and value encoding of the NIO transport. A frame is
+ * [int length][long request id][byte kind][payload], length counting everything
+ * after itself. A call carries the method index and its arguments, a reply one
+ * value, an error a message. Revoke frames go from server to proxy and are
+ * answered by a reply of the same id. Values are tagged so nulls, chunks and the
+ * few argument and result classes of ServerInf travel without Java serialization.
+ */
+public class Wire {
+
+    /* frame kinds */
+    static final byte CALL = 0;
+    static final byte REPLY = 1;
+    static final byte ERROR = 2;
+    static final byte REVOKE = 3;
+
+    /* length, id and kind */
+    static final int HEADER = 4 + 8 + 1;
+    static final int MAXFRAME = 1 << 30;
+
+    /* value tags */
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte BOOL = 3;
+    private static final byte STRING = 4;
+    private static final byte OPTION = 5;
+    static final byte CHUNK = 6;
+    private static final byte LIST = 7;
+    private static final byte LONGS = 8;
+    private static final byte BYTES2 = 9;
+    private static final byte BOOLS = 10;
+    private static final byte SIGNATURES = 11;
+    private static final byte DELTA = 12;
+    private static final byte FETCH = 13;
+    private static final byte HOLDER = 14;
+
+    /* ServerInf methods in a fixed order, a call names its method by index */
+    static final Method[] METHODS = ServerInf.class.getMethods();
+    static {
+        Arrays.sort(METHODS, new Comparator<Method>() {
+            @Override
+            public int compare(Method a, Method b) {
+                return a.toGenericString().compareTo(b.toGenericString());
+            }
+        });
+    }
+
+    /**
+     * methodIndex: index of a ServerInf method in METHODS
+     * @param method         method
+     * @return index, -1 if not a ServerInf method
+     */
+    static int methodIndex(Method method) {
+        for (int i = 0; i < METHODS.length; i++) {
+            if (METHODS[i].equals(method)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Frame: a frame being built, with room for the header in front
+     */
+    static class Frame extends ByteArrayOutputStream {
+        final DataOutputStream out = new DataOutputStream(this);
+
+        /**
+         * Frame constructor
+         * @param id             request id
+         * @param kind           frame kind
+         */
+        Frame(long id, byte kind) throws IOException {
+            super(256);
+            out.writeInt(0);
+            out.writeLong(id);
+            out.writeByte(kind);
+        }
+
+        /**
+         * send: fill in the length and write the frame to a channel; the caller
+         * holds the channel's write lock
+         * @param channel        connection
+         * @param extra          bytes the caller sends right after this frame's
+         *                       bytes as part of the same frame
+         * @throws IOException
+         */
+        void send(WritableByteChannel channel, long extra) throws IOException {
+            long length = count - 4 + extra;
+            if (length > MAXFRAME) throw new IOException("frame too large: " + length);
+            ByteBuffer bb = ByteBuffer.wrap(buf, 0, count);
+            bb.putInt(0, (int) length);
+            while (bb.hasRemaining()) channel.write(bb);
+        }
+    }
+
+    /**
+     * readFrame: read the next frame of a connection
+     * @param channel        connection
+     * @param header         buffer of HEADER bytes, holds the id and kind after
+     * @return the payload in a pooled buffer to give back with BufferPool.put,
+     *         null at the end of the stream
+     * @throws IOException
+     */
+    static byte[] readFrame(ReadableByteChannel channel, ByteBuffer header) throws IOException {
+        header.clear();
+        if (!readFully(channel, header)) return null;
+        int length = header.getInt(0);
+        if (length < HEADER - 4 || length > MAXFRAME) throw new IOException("bad frame length: " + length);
+        byte[] payload = BufferPool.get(length - (HEADER - 4));
+        if (!readFully(channel, ByteBuffer.wrap(payload, 0, length - (HEADER - 4)))) {
+            BufferPool.put(payload);
+            throw new EOFException("frame cut short");
+        }
+        return payload;
+    }
+
+    /**
+     * payload: stream over the payload of the frame just read
+     * @param payload        buffer from readFrame
+     * @param header         header from readFrame
+     * @return payload stream
+     */
+    static DataInputStream payload(byte[] payload, ByteBuffer header) {
+        return new DataInputStream(new ByteArrayInputStream(payload, 0, header.getInt(0) - (HEADER - 4)));
+    }
+
+    private static boolean readFully(ReadableByteChannel channel, ByteBuffer bb) throws IOException {
+        while (bb.hasRemaining()) {
+            if (channel.read(bb) < 0) {
+                if (bb.position() == 0) return false;
+                throw new EOFException("connection closed mid-frame");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * write: encode a value
+     * @param out            payload stream
+     * @param v              value of a ServerInf argument or result type
+     * @throws IOException
+     */
+    static void write(DataOutputStream out, Object v) throws IOException {
+        if (v == null) {
+            out.writeByte(NULL);
+        } else if (v instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) v);
+        } else if (v instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) v);
+        } else if (v instanceof Boolean) {
+            out.writeByte(BOOL);
+            out.writeBoolean((Boolean) v);
+        } else if (v instanceof String) {
+            out.writeByte(STRING);
+            out.writeUTF((String) v);
+        } else if (v instanceof FileHandling.OpenOption) {
+            out.writeByte(OPTION);
+            out.writeByte(((FileHandling.OpenOption) v).ordinal());
+        } else if (v instanceof Chunk) {
+            out.writeByte(CHUNK);
+            ((Chunk) v).writeTo(out);
+        } else if (v instanceof List) {
+            List<?> list = (List<?>) v;
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for (Object e : list) write(out, e);
+        } else if (v instanceof long[]) {
+            long[] longs = (long[]) v;
+            out.writeByte(LONGS);
+            out.writeInt(longs.length);
+            for (long l : longs) out.writeLong(l);
+        } else if (v instanceof byte[][]) {
+            byte[][] bytes = (byte[][]) v;
+            out.writeByte(BYTES2);
+            writeBytes2(out, bytes);
+        } else if (v instanceof boolean[]) {
+            boolean[] bools = (boolean[]) v;
+            out.writeByte(BOOLS);
+            out.writeInt(bools.length);
+            for (boolean b : bools) out.writeBoolean(b);
+        } else if (v instanceof Signatures) {
+            Signatures s = (Signatures) v;
+            out.writeByte(SIGNATURES);
+            out.writeInt(s.blockSize);
+            out.writeInt(s.weak.length);
+            for (int w : s.weak) out.writeInt(w);
+            writeBytes2(out, s.strong);
+            out.writeLong(s.version);
+            out.writeLong(s.length);
+        } else if (v instanceof Delta) {
+            Delta d = (Delta) v;
+            out.writeByte(DELTA);
+            out.writeInt(d.blockSize);
+            out.writeLong(d.length);
+            out.writeInt(d.ops.length);
+            for (int op : d.ops) out.writeInt(op);
+            out.writeInt(d.literals.length);
+            out.write(d.literals);
+        } else if (v instanceof Fetch) {
+            Fetch f = (Fetch) v;
+            out.writeByte(FETCH);
+            out.writeBoolean(f.modified);
+            out.writeBoolean(f.leased);
+            out.writeLong(f.version);
+            out.writeLong(f.length);
+            write(out, f.chunk);
+        } else if (v instanceof LeaseCallback) {
+            // the holder is the connection itself, the server calls back over it
+            out.writeByte(HOLDER);
+        } else {
+            throw new NotSerializableException(v.getClass().getName());
+        }
+    }
+
+    /**
+     * read: decode a value written by write
+     * @param in             payload stream
+     * @param holder         lease callback standing for the other end of the connection
+     * @return value
+     * @throws IOException
+     */
+    static Object read(DataInputStream in, LeaseCallback holder) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case BOOL:
+                return in.readBoolean();
+            case STRING:
+                return in.readUTF();
+            case OPTION:
+                return FileHandling.OpenOption.values()[in.readByte()];
+            case CHUNK: {
+                Chunk chunk = new Chunk(0);
+                chunk.readFrom(in);
+                return chunk;
+            }
+            case LIST: {
+                int n = in.readInt();
+                List<Object> list = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) list.add(read(in, holder));
+                return list;
+            }
+            case LONGS: {
+                long[] longs = new long[in.readInt()];
+                for (int i = 0; i < longs.length; i++) longs[i] = in.readLong();
+                return longs;
+            }
+            case BYTES2:
+                return readBytes2(in);
+            case BOOLS: {
+                boolean[] bools = new boolean[in.readInt()];
+                for (int i = 0; i < bools.length; i++) bools[i] = in.readBoolean();
+                return bools;
+            }
+            case SIGNATURES: {
+                int blockSize = in.readInt();
+                Signatures s = new Signatures(blockSize, in.readInt());
+                for (int i = 0; i < s.weak.length; i++) s.weak[i] = in.readInt();
+                s.strong = readBytes2(in);
+                s.version = in.readLong();
+                s.length = in.readLong();
+                return s;
+            }
+            case DELTA: {
+                Delta d = new Delta();
+                d.blockSize = in.readInt();
+                d.length = in.readLong();
+                d.ops = new int[in.readInt()];
+                for (int i = 0; i < d.ops.length; i++) d.ops[i] = in.readInt();
+                d.literals = new byte[in.readInt()];
+                in.readFully(d.literals);
+                return d;
+            }
+            case FETCH: {
+                boolean modified = in.readBoolean();
+                boolean leased = in.readBoolean();
+                Fetch f = new Fetch(0);
+                f.modified = modified;
+                f.leased = leased;
+                f.version = in.readLong();
+                f.length = in.readLong();
+                f.chunk = (Chunk) read(in, holder);
+                return f;
+            }
+            case HOLDER:
+                return holder;
+            default:
+                throw new StreamCorruptedException("unknown tag: " + tag);
+        }
+    }
+
+    private static void writeBytes2(DataOutputStream out, byte[][] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        for (byte[] b : bytes) {
+            if (b == null) {
+                out.writeInt(-1);
+                continue;
+            }
+            out.writeInt(b.length);
+            out.write(b);
+        }
+    }
+
+    private static byte[][] readBytes2(DataInputStream in) throws IOException {
+        byte[][] bytes = new byte[in.readInt()][];
+        for (int i = 0; i < bytes.length; i++) {
+            int n = in.readInt();
+            if (n < 0) continue;
+            bytes[i] = new byte[n];
+            in.readFully(bytes[i]);
+        }
+        return bytes;
+    }
+}